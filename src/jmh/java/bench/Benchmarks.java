@@ -0,0 +1,31 @@
+package bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.Main;
+
+/**
+ * Default entry point of the {@code jmh} profile: the JMH command line, writing the results as JSON to
+ * {@value #DEFAULT_RESULT_FILE} unless {@code -rf} or {@code -rff} say otherwise. Keep the file of each version
+ * around to compare them, e.g. on jmh.morethan.io.
+ * <p>
+ * {@code mvn -B -Pjmh package exec:exec -Djmh.args="ProtocolBenchmark -rff target/protocol.json"}
+ */
+public class Benchmarks {
+    static final String DEFAULT_RESULT_FILE = "target/jmh-result.json";
+
+    public static void main(String[] args) throws IOException {
+        List<String> arguments = new ArrayList<>(List.of(args));
+        if (!arguments.contains("-rf")) {
+            arguments.add("-rf");
+            arguments.add("json");
+        }
+        if (!arguments.contains("-rff")) {
+            arguments.add("-rff");
+            arguments.add(DEFAULT_RESULT_FILE);
+        }
+        Main.main(arguments.toArray(String[]::new));
+    }
+}
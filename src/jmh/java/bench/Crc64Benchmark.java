@@ -0,0 +1,75 @@
+package bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import util.CRC64;
+
+/**
+ * {@link CRC64} over buffers from a single key up to a large RDB file, against the byte-at-a-time loop it
+ * replaced. {@code checksum} goes parallel from 8 MiB; {@code update} stays on one core.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Crc64Benchmark {
+    private static final long[] LEGACY_TABLE = new long[256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            long crc = b;
+            for (int i = 0; i < 8; i++) {
+                crc = (crc & 1L) != 0 ? (crc >>> 1) ^ 0xC96C5795D7870F42L : crc >>> 1;
+            }
+            LEGACY_TABLE[b] = crc;
+        }
+    }
+
+    @Param({"64", "4096", "1048576", "67108864"})
+    public int size;
+
+    private byte[] data;
+    private final CRC64 crc64 = new CRC64();
+
+    @Setup
+    public void setUp() {
+        data = new byte[size];
+        ThreadLocalRandom.current().nextBytes(data);
+    }
+
+    @Benchmark
+    public long checksum() {
+        return CRC64.checksum(data);
+    }
+
+    @Benchmark
+    public long update() {
+        crc64.reset();
+        crc64.update(data, 0, data.length);
+        return crc64.getValue();
+    }
+
+    @Benchmark
+    public long legacy() {
+        long crc = 0xFFFFFFFFFFFFFFFFL;
+        for (byte b : data) {
+            crc = LEGACY_TABLE[((int) crc ^ b) & 0xFF] ^ (crc >>> 8);
+        }
+        return ~crc;
+    }
+}
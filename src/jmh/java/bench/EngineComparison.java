@@ -0,0 +1,144 @@
+package bench;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import protocol.ReplyBuffer;
+import protocol.ValueType;
+import storage.Key;
+import storage.SlabAllocator;
+import storage.Storage;
+import storage.StorageEngine;
+import storage.StorageRecord;
+
+/**
+ * GC pauses and heap size of the heap and off-heap storage engines under the same load. Fills the keyspace, then
+ * runs a 90/10 GET/SET mix over random keys for a while, recording every stop-the-world pause the collectors
+ * report. Each engine runs in its own JVM with the same options, so neither inherits the other's heap.
+ * <p>
+ * {@code mvn -B -Pjmh package exec:exec -Djmh.main=bench.EngineComparison -Djmh.args="2000000 64 30"}
+ * <p>
+ * The arguments are the key count, the value size in bytes and the seconds of load. Pass JVM options such as
+ * {@code -Xmx} or {@code -XX:+UseParallelGC} in front of the main class to compare collectors.
+ */
+public class EngineComparison {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int keyCount = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int valueSize = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        if (args.length > 3) {
+            run(StorageEngine.fromValue(args[3]), keyCount, valueSize, seconds);
+            return;
+        }
+
+        for (StorageEngine engine : StorageEngine.values()) {
+            List<String> command = new ArrayList<>();
+            command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+            command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(EngineComparison.class.getName());
+            command.add(String.valueOf(keyCount));
+            command.add(String.valueOf(valueSize));
+            command.add(String.valueOf(seconds));
+            command.add(engine.getValue());
+            int exitCode = new ProcessBuilder(command).inheritIO().start().waitFor();
+            if (exitCode != 0) {
+                System.err.println(engine.getValue() + " run failed with exit code " + exitCode);
+            }
+        }
+    }
+
+    private static void run(StorageEngine engine, int keyCount, int valueSize, int seconds) {
+        Storage storage = new Storage(engine);
+        Key[] keys = new Key[keyCount];
+        byte[] value = new byte[valueSize];
+        ThreadLocalRandom.current().nextBytes(value);
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = Key.of("key:" + i);
+            storage.set(keys[i], value, 0, valueSize, ValueType.STRING, StorageRecord.NO_EXPIRY);
+        }
+        long heapBytes = usedHeap();
+
+        List<Long> pauses = Collections.synchronizedList(new ArrayList<>());
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            // Concurrent cycles are reported too, but they don't stop the application
+            if (collector.getName().contains("Concurrent") || collector.getName().contains("Cycles")) {
+                continue;
+            }
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                    pauses.add(GarbageCollectionNotificationInfo
+                            .from((CompositeData) notification.getUserData()).getGcInfo().getDuration());
+                }
+            }, null, null);
+        }
+
+        ReplyBuffer reply = new ReplyBuffer();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long operations = 0;
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            for (int i = 0; i < 1000; i++) {
+                Key key = keys[random.nextInt(keyCount)];
+                if (random.nextInt(10) == 0) {
+                    storage.set(key, value, 0, valueSize, ValueType.STRING, StorageRecord.NO_EXPIRY);
+                } else {
+                    storage.writeValue(key, reply);
+                    reply.clear();
+                }
+            }
+            operations += 1000;
+        }
+
+        List<Long> sorted;
+        synchronized (pauses) {
+            sorted = new ArrayList<>(pauses);
+        }
+        Collections.sort(sorted);
+        long total = sorted.stream().mapToLong(Long::longValue).sum();
+        SlabAllocator slabs = storage.getSlabs();
+
+        System.out.printf("%n%s engine, %d keys, %d byte values, %d s%n", engine.getValue(), keyCount, valueSize, seconds);
+        System.out.printf("  heap after fill     %,14d bytes (%.1f bytes/key)%n", heapBytes, (double) heapBytes / keyCount);
+        System.out.printf("  off-heap reserved   %,14d bytes%n", slabs == null ? 0 : slabs.getReservedBytes());
+        System.out.printf("  throughput          %,14d ops/s%n", operations / seconds);
+        System.out.printf("  gc pauses           %,14d%n", sorted.size());
+        System.out.printf("  gc pause total      %,14d ms%n", total);
+        System.out.printf("  gc pause p50        %,14d ms%n", percentile(sorted, 0.50));
+        System.out.printf("  gc pause p99        %,14d ms%n", percentile(sorted, 0.99));
+        System.out.printf("  gc pause max        %,14d ms%n", sorted.isEmpty() ? 0 : sorted.getLast());
+    }
+
+    private static long percentile(List<Long> sorted, double quantile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        return sorted.get(Math.min(sorted.size() - 1, (int) Math.ceil(quantile * sorted.size()) - 1));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
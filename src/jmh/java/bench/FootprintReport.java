@@ -0,0 +1,71 @@
+package bench;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import protocol.ValueType;
+import storage.Key;
+import storage.StorageRecord;
+
+/**
+ * Heap bytes per key of the keyspace map on a synthetic dataset, for the layout {@link storage.Storage} uses and
+ * for the previous one ({@code String} keys and an {@link Instant} per expiring record). Every other key carries a
+ * TTL. The expiry index is left out; it is the same size in both layouts.
+ * <p>
+ * {@code mvn -B -Pjmh package exec:exec -Djmh.main=bench.FootprintReport -Djmh.args="1000000 16"}
+ * <p>
+ * The arguments are the key count and the value size in bytes. Give the JVM enough heap for both layouts and
+ * keep compressed oops on, as in production.
+ */
+public class FootprintReport {
+
+    /**
+     * The record layout before the expiry became a primitive.
+     */
+    private record LegacyRecord(ValueType type, byte[] data, Instant expiry) {
+    }
+
+    public static void main(String[] args) {
+        int keyCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int valueSize = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        long expiresAt = System.currentTimeMillis() + 3_600_000;
+
+        long before = usedHeap();
+        Map<String, LegacyRecord> legacy = new ConcurrentHashMap<>();
+        for (int i = 0; i < keyCount; i++) {
+            Instant expiry = (i & 1) == 0 ? Instant.ofEpochMilli(expiresAt) : null;
+            legacy.put("key:" + i, new LegacyRecord(ValueType.STRING, new byte[valueSize], expiry));
+        }
+        long legacyBytes = usedHeap() - before;
+        legacy.clear();
+
+        before = usedHeap();
+        Map<Key, StorageRecord> compact = new ConcurrentHashMap<>();
+        for (int i = 0; i < keyCount; i++) {
+            long expiry = (i & 1) == 0 ? expiresAt : StorageRecord.NO_EXPIRY;
+            compact.put(Key.of("key:" + i), new StorageRecord(ValueType.STRING, new byte[valueSize], expiry));
+        }
+        long compactBytes = usedHeap() - before;
+
+        System.out.printf("%d keys, %d byte values, half with a TTL%n", compact.size(), valueSize);
+        System.out.printf("%-10s %12s %10s%n", "layout", "heap bytes", "bytes/key");
+        System.out.printf("%-10s %12d %10.1f%n", "legacy", legacyBytes, (double) legacyBytes / keyCount);
+        System.out.printf("%-10s %12d %10.1f%n", "compact", compactBytes, (double) compactBytes / keyCount);
+        System.out.printf("saved %.1f bytes/key (%.0f%%)%n", (double) (legacyBytes - compactBytes) / keyCount,
+                100.0 * (legacyBytes - compactBytes) / legacyBytes);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,73 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import command.Keys;
+import config.ObjectFactory;
+import protocol.ValueType;
+import storage.Key;
+import storage.Storage;
+import storage.StorageRecord;
+
+/**
+ * {@code KEYS} over a keyspace of {@code user:<n>:name} keys, with a match-all pattern, a prefix matching a
+ * tenth of the keys, and a pattern exercising {@code ?} and a character class.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeysBenchmark {
+    @Param({"10000"})
+    public int keyCount;
+
+    @Param({"*", "user:1*", "user:?[0-4]:name"})
+    public String pattern;
+
+    private Path dir;
+    private Keys keys;
+    private String[] args;
+
+    @Setup
+    public void setUp() throws IOException {
+        // Handlers reach the keyspace through the application singleton; an empty directory keeps it from
+        // loading whatever dump.rdb happens to be in the working directory
+        dir = Files.createTempDirectory("keys-bench");
+        ObjectFactory objectFactory = ObjectFactory.getInstance(new String[]{"--dir", dir.toString()});
+        Storage storage = objectFactory.getPersistenceManager().getStorage();
+        byte[] value = new byte[16];
+        for (int i = 0; i < keyCount; i++) {
+            storage.set(Key.of("user:" + i + ":name"), value, ValueType.STRING, StorageRecord.NO_EXPIRY);
+        }
+        keys = new Keys(objectFactory);
+        args = new String[]{"KEYS", pattern};
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public byte[] keys() {
+        return keys.handle(args);
+    }
+}
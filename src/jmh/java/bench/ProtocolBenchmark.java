@@ -0,0 +1,81 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import protocol.CommandArgs;
+import protocol.ProtocolDeserializer;
+import protocol.RespParser;
+
+/**
+ * Parsing a batch of pipelined {@code SET key:i value} frames, the way a client that pipelines writes delivers
+ * them. {@code deserializer} goes through {@link ProtocolDeserializer}, the parser the server used before, kept as
+ * the baseline; {@code respParser} through the {@link RespParser} the connections use. Scores are per batch, so
+ * divide by {@code pipeline} for the cost of a single command.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProtocolBenchmark {
+    @Param({"1", "16", "128"})
+    public int pipeline;
+
+    @Param({"16", "512"})
+    public int valueSize;
+
+    private byte[] frames;
+    private RespParser parser;
+    private ProtocolDeserializer deserializer;
+
+    @Setup
+    public void setUp() {
+        String value = "v".repeat(valueSize);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < pipeline; i++) {
+            String key = "key:" + i;
+            String frame = "*3\r\n$3\r\nSET\r\n$" + key.length() + "\r\n" + key + "\r\n$" + valueSize + "\r\n" + value + "\r\n";
+            out.writeBytes(frame.getBytes(StandardCharsets.US_ASCII));
+        }
+        frames = out.toByteArray();
+        parser = new RespParser(frames.length);
+        deserializer = new ProtocolDeserializer();
+    }
+
+    @Benchmark
+    public void deserializer(Blackhole blackhole) throws EOFException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(frames));
+        for (int i = 0; i < pipeline; i++) {
+            blackhole.consume(deserializer.parseInput(input));
+        }
+    }
+
+    @Benchmark
+    public void respParser(Blackhole blackhole) {
+        parser.writableBuffer().put(frames);
+        CommandArgs args;
+        while ((args = parser.next()) != null) {
+            blackhole.consume(args.length(2));
+        }
+        parser.compact();
+    }
+}
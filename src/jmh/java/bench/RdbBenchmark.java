@@ -0,0 +1,85 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import config.ObjectFactory;
+import protocol.ValueType;
+import protocol.persistence.RDBLoader;
+import protocol.persistence.RDBProcessor;
+import storage.Key;
+import storage.Storage;
+import storage.StorageRecord;
+import util.Clock;
+
+/**
+ * Saving and loading an RDB file of {@code keyCount} string keys, a tenth of them with a TTL. Each invocation is
+ * a whole file, so this runs in single shot mode; the file goes to a temporary directory that is removed afterwards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RdbBenchmark {
+    @Param({"1000000"})
+    public int keyCount;
+
+    @Param({"64"})
+    public int valueSize;
+
+    private Path dir;
+    private Path file;
+    private RDBProcessor processor;
+    private RDBLoader loader;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("rdb-bench");
+        file = dir.resolve("dump.rdb");
+        // The persistence code finds the file and the keyspace through the application singleton
+        ObjectFactory objectFactory = ObjectFactory.getInstance(
+                new String[]{"--dir", dir.toString(), "--dbfilename", file.getFileName().toString()});
+        Storage storage = objectFactory.getPersistenceManager().getStorage();
+        byte[] value = new byte[valueSize];
+        long expiresAt = Clock.millis() + TimeUnit.DAYS.toMillis(1);
+        for (int i = 0; i < keyCount; i++) {
+            storage.set(Key.of("key:" + i), value, ValueType.STRING, i % 10 == 0 ? expiresAt : StorageRecord.NO_EXPIRY);
+        }
+        processor = new RDBProcessor();
+        loader = new RDBLoader();
+        processor.saveAllKeys();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public void save() {
+        processor.saveAllKeys();
+    }
+
+    @Benchmark
+    public RDBLoader.LoadStats load() throws IOException {
+        return loader.load(file, new Storage());
+    }
+}
@@ -0,0 +1,101 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import protocol.ProtocolSerializer;
+import protocol.ReplyBuffer;
+
+/**
+ * Encoding the common replies. The {@link ProtocolSerializer} variants allocate an array per reply, as the
+ * handlers that still return {@code byte[]} do; the {@link ReplyBuffer} ones append to a reused connection buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializerBenchmark {
+    @Param({"16", "512"})
+    public int valueSize;
+
+    @Param({"10"})
+    public int arrayLength;
+
+    private final ProtocolSerializer serializer = new ProtocolSerializer();
+    private final ReplyBuffer reply = new ReplyBuffer();
+    private byte[] value;
+    private byte[][] values;
+
+    @Setup
+    public void setUp() {
+        value = new byte[valueSize];
+        values = new byte[arrayLength][];
+        for (int i = 0; i < arrayLength; i++) {
+            values[i] = value;
+        }
+    }
+
+    @Benchmark
+    public byte[] serializerSimpleString() {
+        return serializer.simpleString("OK");
+    }
+
+    @Benchmark
+    public byte[] serializerInteger() {
+        return serializer.integer(123456);
+    }
+
+    @Benchmark
+    public byte[] serializerBulkString() {
+        return serializer.bulkString(value);
+    }
+
+    @Benchmark
+    public byte[] serializerArray() {
+        return serializer.array(values);
+    }
+
+    @Benchmark
+    public int replyBufferSimpleString() {
+        reply.clear();
+        reply.writeOk();
+        return reply.pending();
+    }
+
+    @Benchmark
+    public int replyBufferInteger() {
+        reply.clear();
+        reply.writeInteger(123456);
+        return reply.pending();
+    }
+
+    @Benchmark
+    public int replyBufferBulkString() {
+        reply.clear();
+        reply.writeBulkString(value);
+        return reply.pending();
+    }
+
+    @Benchmark
+    public int replyBufferArray() {
+        reply.clear();
+        reply.writeArrayHeader(values.length);
+        for (byte[] element : values) {
+            reply.writeBulkString(element);
+        }
+        return reply.pending();
+    }
+}
@@ -0,0 +1,94 @@
+package bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import protocol.ValueType;
+import storage.Key;
+import storage.Storage;
+import storage.StorageEngine;
+import storage.StorageRecord;
+
+/**
+ * GET/SET throughput of {@link Storage}. Run with increasing {@code -t} (or through {@link StorageScaling}) to see
+ * how it scales with threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageBenchmark {
+    @Param({"100000"})
+    public int keyCount;
+
+    @Param({"64"})
+    public int valueSize;
+
+    @Param({"heap", "offheap"})
+    public String engine;
+
+    private Storage storage;
+    private Key[] keys;
+    private byte[] value;
+
+    @Setup
+    public void setUp() {
+        storage = new Storage(StorageEngine.fromValue(engine));
+        keys = new Key[keyCount];
+        value = new byte[valueSize];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = Key.of("key:" + i);
+            storage.set(keys[i], value, ValueType.STRING, StorageRecord.NO_EXPIRY);
+        }
+    }
+
+    /**
+     * Per-thread key cursor, so threads don't share a random generator.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next = ThreadLocalRandom.current().nextInt();
+
+        int nextIndex(int bound) {
+            next = next * 1664525 + 1013904223;
+            return (next >>> 1) % bound;
+        }
+    }
+
+    @Benchmark
+    public byte[] get(Cursor cursor) {
+        return storage.getValue(keys[cursor.nextIndex(keyCount)]);
+    }
+
+    @Benchmark
+    public void set(Cursor cursor) {
+        storage.set(keys[cursor.nextIndex(keyCount)], value, ValueType.STRING, StorageRecord.NO_EXPIRY);
+    }
+
+    /**
+     * 90% GET, 10% SET, a typical cache workload.
+     */
+    @Benchmark
+    public byte[] mixed(Cursor cursor) {
+        int index = cursor.nextIndex(keyCount);
+        if (index % 10 == 0) {
+            storage.set(keys[index], value, ValueType.STRING, StorageRecord.NO_EXPIRY);
+            return null;
+        }
+        return storage.getValue(keys[index]);
+    }
+}
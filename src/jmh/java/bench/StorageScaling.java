@@ -0,0 +1,70 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs {@link StorageBenchmark} at 1, 2, 4 ... up to the core count and prints throughput, speedup over one
+ * thread and per-thread efficiency. Linear scaling shows up as an efficiency close to 1.0. The runs are also
+ * written as JSON to {@value #RESULT_FILE}.
+ * <p>
+ * {@code mvn -B -Pjmh package exec:exec -Djmh.main=bench.StorageScaling}
+ * <p>
+ * Measures the heap engine unless given {@code engine=offheap}; other arguments select the benchmarks to run.
+ */
+public class StorageScaling {
+    static final String RESULT_FILE = "target/jmh-scaling.json";
+
+    public static void main(String[] args) throws RunnerException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(cores);
+
+        String engine = "heap";
+        List<String> benchmarks = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("engine=")) {
+                engine = arg.substring("engine=".length());
+            } else {
+                benchmarks.add(arg);
+            }
+        }
+        if (benchmarks.isEmpty()) {
+            benchmarks = List.of("get", "set", "mixed");
+        }
+        List<RunResult> results = new ArrayList<>();
+        StringBuilder report = new StringBuilder();
+        for (String benchmark : benchmarks) {
+            double baseline = 0;
+            report.append(String.format("%n%-8s %8s %16s %8s %10s%n", benchmark, "threads", "ops/s", "speedup", "efficiency"));
+            for (int threads : threadCounts) {
+                Options options = new OptionsBuilder()
+                        .include(StorageBenchmark.class.getName() + "." + benchmark + "$")
+                        .threads(threads)
+                        .param("engine", engine)
+                        .build();
+                RunResult result = new Runner(options).runSingle();
+                results.add(result);
+                double score = result.getPrimaryResult().getScore();
+                if (threads == 1) {
+                    baseline = score;
+                }
+                double speedup = score / baseline;
+                report.append(String.format("%-8s %8d %16.0f %8.2f %10.2f%n", "", threads, score, speedup, speedup / threads));
+            }
+        }
+        ResultFormatFactory.getInstance(ResultFormatType.JSON, RESULT_FILE).writeOut(results);
+        System.out.println(report);
+    }
+}
@@ -0,0 +1,63 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import config.ObjectFactory;
+import loadgen.LoadOptions;
+import loadgen.LoadResults;
+import loadgen.LoadRunner;
+
+/**
+ * Load generator in the spirit of {@code redis-benchmark}: drives a GET/SET/INCR mix against a server over
+ * several connections and prints throughput and latency percentiles.
+ * <p>
+ * {@code java -cp target/classes LoadGenerator --clients 50 --rate 100000 --pipeline 1 --duration 30}
+ * <p>
+ * Without {@code --rate} the connections send as fast as they are answered. With {@code --embedded} the server
+ * runs in the same JVM on {@code --port}, taking any arguments given after a lone {@code --}.
+ */
+public class LoadGenerator {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        LoadOptions options = new LoadOptions(args);
+        if (options.isEmbedded()) {
+            startEmbeddedServer(options);
+        }
+
+        LoadRunner runner = new LoadRunner(options);
+        LoadResults results = runner.run();
+        results.print(options, runner.getWorkload(), System.out);
+
+        if (options.isEmbedded()) {
+            // The server threads would keep the JVM running
+            System.exit(0);
+        }
+    }
+
+    private static void startEmbeddedServer(LoadOptions options) throws IOException, InterruptedException {
+        Thread.ofPlatform().daemon().name("embedded-server").start(() -> {
+            try {
+                Main.main(options.getServerArgs());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            try {
+                new Socket(options.getHost(), options.getPort()).close();
+                break;
+            } catch (IOException e) {
+                if (System.nanoTime() > deadline) {
+                    throw new IOException("Embedded server did not start on port " + options.getPort(), e);
+                }
+                Thread.sleep(50);
+            }
+        }
+        // The server listens while it loads its RDB file, answering data commands with errors until it is done
+        while (ObjectFactory.getInstance().getPersistenceManager().isLoading()) {
+            Thread.sleep(50);
+        }
+    }
+}
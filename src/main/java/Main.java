@@ -7,29 +7,66 @@ import command.ConnectionHandler;
 import config.ApplicationProperties;
 import config.ObjectFactory;
 import replica.ReplicaRunner;
+import server.NioServer;
 
 public class Main {
     private static final Logger logger = Logger.getLogger(Main.class.getName());
 
     public static void main(String[] args) throws IOException {
         ObjectFactory objectFactory = ObjectFactory.getInstance(args);
-        logger.info("Starting server on port " + objectFactory.getProperties().getPort());
+        ApplicationProperties properties = objectFactory.getProperties();
+        logger.info("Starting server on port " + properties.getPort() + " in " + properties.getIoMode().getValue() + " mode");
+        // Marked as loading before the port opens, so no client can see the keyspace half loaded
+        loadThenStartReplication(objectFactory);
 
+        switch (properties.getIoMode()) {
+            case NIO -> serveNio(objectFactory);
+            case THREAD -> serveBlocking(objectFactory, Thread.ofPlatform());
+            case VIRTUAL -> serveBlocking(objectFactory, Thread.ofVirtual().name("client-", 0));
+        }
+    }
+
+    private static void serveBlocking(ObjectFactory objectFactory, Thread.Builder threadBuilder) {
         try (ServerSocket serverSocket = new ServerSocket(objectFactory.getProperties().getPort())) {
             serverSocket.setReuseAddress(true);
-            if (objectFactory.getProperties().isReplica()) {
-                new ReplicaRunner().start();
-            }else{
-                logger.info("Master server started");
-            }
             while (true) {
                 Socket socket = serverSocket.accept();
                 logger.info("Client connected " + socket.getInetAddress().getHostAddress());
-                new ConnectionHandler(socket, objectFactory).start();
+                threadBuilder.start(new ConnectionHandler(socket, objectFactory));
             }
         } catch (IOException e) {
             logger.severe("Failed to start server " + e);
+        }
+    }
+
+    private static void serveNio(ObjectFactory objectFactory) {
+        try (NioServer server = new NioServer(objectFactory)) {
+            server.serve();
+        } catch (IOException e) {
+            logger.severe("Failed to start server " + e);
+        }
+    }
+
+    /**
+     * Loads the RDB file in the background while the server starts listening, answering data commands with a
+     * LOADING error meanwhile, and only then connects to the master, whose full resync would replace the keyspace
+     * anyway.
+     */
+    private static void loadThenStartReplication(ObjectFactory objectFactory) {
+        objectFactory.getPersistenceManager().loadInBackground().whenComplete((loaded, error) -> {
+            if (error != null) {
+                logger.severe("Fatal error loading the RDB file: " + error.getMessage());
+                System.exit(1);
+            }
+            startReplication(objectFactory);
+        });
+    }
 
+    private static void startReplication(ObjectFactory objectFactory) {
+        if (objectFactory.getProperties().isReplica()) {
+            new ReplicaRunner().start();
+        } else {
+            logger.info("Master server started");
         }
     }
 }
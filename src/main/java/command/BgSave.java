@@ -0,0 +1,31 @@
+package command;
+
+import config.ObjectFactory;
+import protocol.persistence.PersistenceManager;
+
+/**
+ * BGSAVE: saves a snapshot of the keyspace on a background thread while clients keep writing.
+ */
+public class BgSave extends AbstractHandler {
+    private final PersistenceManager persistenceManager;
+
+    public BgSave(ObjectFactory objectFactory) {
+        super(objectFactory);
+        this.persistenceManager = objectFactory.getPersistenceManager();
+    }
+
+    @Override
+    public byte[] handle(String[] args) {
+        if (args.length != 1) {
+            return protocolSerializer.simpleError("ERR wrong number of arguments for 'bgsave' command");
+        }
+        try {
+            if (!persistenceManager.backgroundSave()) {
+                return protocolSerializer.simpleError("ERR Background save already in progress");
+            }
+        } catch (IllegalStateException e) {
+            return protocolSerializer.simpleError("ERR " + e.getMessage());
+        }
+        return protocolSerializer.simpleString("Background saving started");
+    }
+}
@@ -0,0 +1,96 @@
+package command;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Per-connection state that outlives a single command, independent of the I/O model serving the client.
+ */
+public class ClientSession {
+    private final String address;
+    private boolean replica;
+    private boolean fullSync;
+    private boolean eofCapable;
+    private long replicationOffset;
+    private long writeOffset;
+    private CompletableFuture<byte[]> pendingReply;
+
+    public ClientSession(SocketAddress remoteAddress) {
+        this.address = remoteAddress instanceof InetSocketAddress inet && inet.getAddress() != null
+                ? inet.getAddress().getHostAddress() + ":" + inet.getPort()
+                : String.valueOf(remoteAddress);
+    }
+
+    /**
+     * The client's {@code ip:port}.
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    public boolean isReplica() {
+        return replica;
+    }
+
+    /**
+     * The master offset right after this client's last write, what a WAIT from it waits for.
+     */
+    public long getWriteOffset() {
+        return writeOffset;
+    }
+
+    void setWriteOffset(long writeOffset) {
+        this.writeOffset = writeOffset;
+    }
+
+    /**
+     * Takes the reply of the last command if it is not ready yet, as with a WAIT that has to wait, or returns
+     * null. The connection sends it once it completes, before running any further command from the client.
+     */
+    public CompletableFuture<byte[]> takePendingReply() {
+        CompletableFuture<byte[]> reply = pendingReply;
+        pendingReply = null;
+        return reply;
+    }
+
+    void setPendingReply(CompletableFuture<byte[]> pendingReply) {
+        this.pendingReply = pendingReply;
+    }
+
+    /**
+     * For a replica, the offset of the replication stream it has everything up to once the PSYNC reply is sent.
+     */
+    public long getReplicationOffset() {
+        return replicationOffset;
+    }
+
+    void markReplica(long replicationOffset) {
+        this.replica = true;
+        this.replicationOffset = replicationOffset;
+    }
+
+    /**
+     * Whether the replica is to be sent a full resync once the connection is handed over, rather than resume
+     * from {@link #getReplicationOffset()}.
+     */
+    public boolean needsFullSync() {
+        return fullSync;
+    }
+
+    void markFullSync() {
+        this.replica = true;
+        this.fullSync = true;
+    }
+
+    /**
+     * Whether the client announced {@code REPLCONF capa eof}, taking an RDB file of unknown length.
+     */
+    public boolean isEofCapable() {
+        return eofCapable;
+    }
+
+    void setEofCapable(boolean eofCapable) {
+        this.eofCapable = eofCapable;
+    }
+}
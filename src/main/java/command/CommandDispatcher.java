@@ -0,0 +1,120 @@
+package command;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import command.factory.CommandFactory;
+import config.ObjectFactory;
+import metrics.CommandMetrics;
+import metrics.CommandStats;
+import metrics.SlowLog;
+import protocol.CommandArgs;
+import protocol.ReplyBuffer;
+import replica.CommandReplicator;
+
+/**
+ * Runs a parsed command against its handler and takes care of replication side effects and statistics.
+ * Shared by every connection model so they only differ in how bytes get in and out.
+ */
+public class CommandDispatcher {
+    private static final Set<String> WRITE_COMMANDS =
+            Set.of("SET", "DEL", "INCR", "DECR", "RPUSH", "LPUSH", "SADD", "ZADD", "EXPIRE", "PEXPIRE", "PEXPIREAT", "PERSIST");
+    // Writes that can grow the keyspace, refused when maxmemory is reached and nothing can be evicted. Only the
+    // master evicts, replicas delete what it tells them to
+    private static final Set<String> DENY_OOM_COMMANDS =
+            Set.of("SET", "INCR", "DECR", "RPUSH", "LPUSH", "SADD", "ZADD");
+    // Commands that don't touch the keyspace, served while it is being loaded
+    private static final Set<String> OK_LOADING_COMMANDS =
+            Set.of("PING", "ECHO", "INFO", "CONFIG", "SLOWLOG", "LASTSAVE", "REPLCONF");
+
+    private final ObjectFactory objectFactory;
+    private final CommandMetrics metrics;
+    private final SlowLog slowLog;
+
+    public CommandDispatcher(ObjectFactory objectFactory) {
+        this.objectFactory = objectFactory;
+        this.metrics = objectFactory.getCommandMetrics();
+        this.slowLog = objectFactory.getSlowLog();
+    }
+
+    /**
+     * Executes the command and encodes its reply into {@code reply}. When the command is a PSYNC that succeeds the
+     * session is marked as a replica and the caller is expected to hand the connection over once the reply is sent.
+     * When the reply is not ready yet, as for a WAIT, it is left in the session for the caller to send once it is,
+     * see {@link ClientSession#takePendingReply()}.
+     */
+    public void dispatch(CommandArgs args, ClientSession session, ReplyBuffer reply) throws IOException {
+        CommandFactory commandFactory = objectFactory.getCommandFactory();
+        CommandFactory.Command command = commandFactory.find(args);
+        if (command == null) {
+            metrics.recordErrorReply();
+            reply.writeError("ERR unknown command '" + args.getString(0) + "'");
+            return;
+        }
+        // The constant name of the command, so nothing is decoded or upper-cased per call
+        String name = command.name();
+        Handler handler = commandFactory.getHandler(command);
+
+        CommandStats stats = metrics.forCommand(name);
+        if (!OK_LOADING_COMMANDS.contains(name) && objectFactory.getPersistenceManager().isLoading()) {
+            stats.recordRejected();
+            metrics.recordErrorReply();
+            reply.writeError("LOADING Redis is loading the dataset in memory");
+            return;
+        }
+        if (DENY_OOM_COMMANDS.contains(name) && objectFactory.getProperties().isMaster()
+                && !objectFactory.getPersistenceManager().getStorage().getEvictor().freeMemoryIfNeeded()) {
+            stats.recordRejected();
+            metrics.recordErrorReply();
+            reply.writeError("OOM command not allowed when used memory > 'maxmemory'.");
+            return;
+        }
+
+        int mark = reply.mark();
+        // What replicas are sent in place of the command, if not the command itself
+        byte[] replicated = null;
+        long start = System.nanoTime();
+        try {
+            if (handler instanceof Psync psync) {
+                psync.sync(args.toStringArray(), session, reply);
+            } else if (handler instanceof ReplConf replConf) {
+                reply.write(replConf.handle(args.toStringArray(), session));
+            } else if (handler instanceof Wait wait) {
+                CompletableFuture<byte[]> pending = wait.await(args.toStringArray(), session.getWriteOffset());
+                if (pending.isDone()) {
+                    reply.write(pending.join());
+                } else {
+                    session.setPendingReply(pending);
+                }
+            } else if (handler instanceof Expire expire) {
+                Expire.Outcome outcome = expire.expire(args.toStringArray());
+                reply.write(outcome.reply());
+                replicated = outcome.replicated();
+            } else {
+                handler.handle(args, reply);
+            }
+        } catch (RuntimeException e) {
+            stats.record(System.nanoTime() - start, true);
+            throw e;
+        }
+        long duration = System.nanoTime() - start;
+        boolean failed = reply.isErrorSince(mark);
+        stats.record(duration, failed);
+        if (failed) {
+            metrics.recordErrorReply();
+        }
+        slowLog.record(args, session.getAddress(), duration);
+
+        if (handler instanceof Psync) {
+            return;
+        }
+
+        if (!session.isReplica() && objectFactory.getProperties().isMaster() && WRITE_COMMANDS.contains(name)) {
+            CommandReplicator replicator = objectFactory.getCommandReplicator();
+            session.setWriteOffset(replicated != null
+                    ? replicator.replicate(replicated)
+                    : replicator.replicateWriteCommand(args));
+        }
+    }
+}
@@ -2,13 +2,27 @@ package command;
 
 import config.ApplicationProperties;
 import config.ObjectFactory;
+import config.OutputBufferLimit;
+import metrics.CommandMetrics;
+import metrics.SlowLog;
+import storage.EvictionPolicy;
+import storage.Evictor;
+import storage.Storage;
 
 public class Config extends AbstractHandler {
     private final ApplicationProperties properties;
+    private final Evictor evictor;
+    private final Storage storage;
+    private final CommandMetrics commandMetrics;
+    private final SlowLog slowLog;
 
     public Config(ObjectFactory objectFactory) {
         super(objectFactory);
         this.properties = objectFactory.getProperties();
+        this.storage = objectFactory.getPersistenceManager().getStorage();
+        this.evictor = storage.getEvictor();
+        this.commandMetrics = objectFactory.getCommandMetrics();
+        this.slowLog = objectFactory.getSlowLog();
     }
 
     @Override
@@ -20,11 +34,21 @@ public class Config extends AbstractHandler {
         return switch (subCommand) {
             case "GET" -> handleGet(args);
             case "SET" -> handleSet(args);
+            case "RESETSTAT" -> handleResetStat(args);
             default ->
                     protocolSerializer.simpleError("ERR unknown subcommand or wrong number of arguments for 'config' command");
         };
     }
 
+    private byte[] handleResetStat(String[] args) {
+        if (args.length != 2) {
+            return protocolSerializer.simpleError("ERR wrong number of arguments for 'config resetstat' command");
+        }
+        commandMetrics.reset();
+        storage.resetStats();
+        return protocolSerializer.simpleString("OK");
+    }
+
     private byte[] handleSet(String[] args) {
         if (args.length != 4) {
             return protocolSerializer.simpleError("ERR wrong number of arguments for 'config set' command");
@@ -42,6 +66,77 @@ public class Config extends AbstractHandler {
                 properties.setDbFileName(value);
                 return protocolSerializer.simpleString("OK");
             }
+            case "rdbcompression" -> {
+                try {
+                    properties.setRdbCompression(ApplicationProperties.parseYesNo(value));
+                } catch (IllegalArgumentException e) {
+                    return protocolSerializer.simpleError("ERR Invalid argument '" + value + "' for CONFIG SET '" + key + "'");
+                }
+                return protocolSerializer.simpleString("OK");
+            }
+            case "rdbcompression-min-length" -> {
+                int minLength;
+                try {
+                    minLength = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    minLength = -1;
+                }
+                if (minLength < 0) {
+                    return protocolSerializer.simpleError("ERR Invalid argument '" + value + "' for CONFIG SET '" + key + "'");
+                }
+                properties.setRdbCompressionMinLength(minLength);
+                return protocolSerializer.simpleString("OK");
+            }
+            case "client-output-buffer-limit" -> {
+                try {
+                    properties.setReplicaOutputBufferLimit(OutputBufferLimit.parse(value));
+                } catch (IllegalArgumentException e) {
+                    return protocolSerializer.simpleError("ERR Invalid argument '" + value + "' for CONFIG SET '" + key + "'");
+                }
+                return protocolSerializer.simpleString("OK");
+            }
+            case "repl-diskless-sync-delay" -> {
+                int delay;
+                try {
+                    delay = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    delay = -1;
+                }
+                if (delay < 0) {
+                    return protocolSerializer.simpleError("ERR Invalid argument '" + value + "' for CONFIG SET '" + key + "'");
+                }
+                properties.setReplDisklessSyncDelay(delay);
+                return protocolSerializer.simpleString("OK");
+            }
+            case "slowlog-log-slower-than" -> {
+                try {
+                    slowLog.setSlowerThanMicros(Long.parseLong(value));
+                } catch (NumberFormatException e) {
+                    return protocolSerializer.simpleError("ERR Invalid argument '" + value + "' for CONFIG SET '" + key + "'");
+                }
+                return protocolSerializer.simpleString("OK");
+            }
+            case "slowlog-max-len" -> {
+                int maxLength;
+                try {
+                    maxLength = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    maxLength = 0;
+                }
+                if (maxLength < 1) {
+                    return protocolSerializer.simpleError("ERR Invalid argument '" + value + "' for CONFIG SET '" + key + "'");
+                }
+                slowLog.setMaxLength(maxLength);
+                return protocolSerializer.simpleString("OK");
+            }
+            case "maxmemory", "maxmemory-policy", "maxmemory-samples" -> {
+                try {
+                    setMemoryParameter(key, value);
+                } catch (IllegalArgumentException e) {
+                    return protocolSerializer.simpleError("ERR Invalid argument '" + value + "' for CONFIG SET '" + key + "'");
+                }
+                return protocolSerializer.simpleString("OK");
+            }
             default -> {
                 return protocolSerializer.simpleError("ERR unsupported CONFIG parameter: " + key);
             }
@@ -61,10 +156,55 @@ public class Config extends AbstractHandler {
             case "dbfilename" -> {
                 return protocolSerializer.array("dbfilename".getBytes(), properties.getDbFileName().getBytes());
             }
+            case "rdbcompression" -> {
+                return protocolSerializer.array("rdbcompression".getBytes(), (properties.isRdbCompression() ? "yes" : "no").getBytes());
+            }
+            case "rdbcompression-min-length" -> {
+                return protocolSerializer.array("rdbcompression-min-length".getBytes(), String.valueOf(properties.getRdbCompressionMinLength()).getBytes());
+            }
+            case "client-output-buffer-limit" -> {
+                return protocolSerializer.array("client-output-buffer-limit".getBytes(), properties.getReplicaOutputBufferLimit().toString().getBytes());
+            }
+            case "repl-backlog-size" -> {
+                return protocolSerializer.array("repl-backlog-size".getBytes(), String.valueOf(properties.getReplBacklogSize()).getBytes());
+            }
+            case "repl-diskless-sync-delay" -> {
+                return protocolSerializer.array("repl-diskless-sync-delay".getBytes(), String.valueOf(properties.getReplDisklessSyncDelay()).getBytes());
+            }
+            case "slowlog-log-slower-than" -> {
+                return protocolSerializer.array("slowlog-log-slower-than".getBytes(), String.valueOf(slowLog.getSlowerThanMicros()).getBytes());
+            }
+            case "slowlog-max-len" -> {
+                return protocolSerializer.array("slowlog-max-len".getBytes(), String.valueOf(slowLog.getMaxLength()).getBytes());
+            }
+            case "maxmemory" -> {
+                return protocolSerializer.array("maxmemory".getBytes(), String.valueOf(evictor.getMaxMemory()).getBytes());
+            }
+            case "maxmemory-policy" -> {
+                return protocolSerializer.array("maxmemory-policy".getBytes(), evictor.getPolicy().getValue().getBytes());
+            }
+            case "maxmemory-samples" -> {
+                return protocolSerializer.array("maxmemory-samples".getBytes(), String.valueOf(evictor.getSamples()).getBytes());
+            }
             default -> {
                 return protocolSerializer.nullBulkString();
             }
         }
 
     }
+
+    private void setMemoryParameter(String key, String value) {
+        switch (key) {
+            case "maxmemory" -> evictor.setMaxMemory(ApplicationProperties.parseMemory(value));
+            case "maxmemory-policy" -> evictor.setPolicy(EvictionPolicy.fromValue(value));
+            case "maxmemory-samples" -> {
+                int samples = Integer.parseInt(value);
+                if (samples < 1) {
+                    throw new IllegalArgumentException("maxmemory-samples must be positive");
+                }
+                evictor.setSamples(samples);
+            }
+            default -> throw new IllegalArgumentException("Not a memory parameter: " + key);
+        }
+    }
 }
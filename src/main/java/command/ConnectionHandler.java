@@ -1,65 +1,120 @@
 package command;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
-import java.util.Arrays;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.commons.lang3.tuple.Pair;
-
 import config.ObjectFactory;
+import protocol.CommandArgs;
+import protocol.ProtocolException;
+import protocol.ReplyBuffer;
+import protocol.RespParser;
 import replica.ReplicaClient;
+import server.ClientMetrics;
 
-public class ConnectionHandler extends Thread {
+/**
+ * Serves one client with blocking socket I/O. Runs on a platform thread in {@code thread} mode and on a
+ * virtual thread in {@code virtual} mode, so nothing on this path may hold a monitor while blocking.
+ */
+public class ConnectionHandler implements Runnable {
     private static final Logger logger = Logger.getLogger(ConnectionHandler.class.getName());
     private final Socket socket;
     private final ObjectFactory objectFactory;
-    private boolean isReplicaSocket;
+    private final ClientSession session;
 
     public ConnectionHandler(Socket socket, ObjectFactory objectFactory) {
         this.socket = socket;
         this.objectFactory = objectFactory;
+        this.session = new ClientSession(socket.getRemoteSocketAddress());
     }
 
     @Override
     public void run() {
+        ClientMetrics clientMetrics = objectFactory.getClientMetrics();
+        boolean virtual = Thread.currentThread().isVirtual();
+        if (virtual) {
+            clientMetrics.virtualThreadStarted();
+        }
+        clientMetrics.clientConnected();
+        ReplyBuffer output = new ReplyBuffer();
         try {
-            DataInputStream dataInputStream = new DataInputStream(socket.getInputStream());
-            DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
-            while (true) {
-                Pair<String, Long> parsedInput = objectFactory.getProtocolDeserializer().parseInput(dataInputStream);
-                String command = parsedInput.getLeft();
-                logger.info("Received command " + command);
-                String[] args = command.split(" ");
-                logger.info("Command args " + Arrays.toString(args));
-                Handler handler = objectFactory.getCommandFactory().getHandler(args[0].toUpperCase());
-                byte[] response = handler.handle(args);
-
-                if (handler instanceof Psync) {
-                    isReplicaSocket = true;
-                    ObjectFactory.getInstance().getProperties().addReplicaClient(new ReplicaClient(socket));
-                    dataOutputStream.write(response);
-                    dataOutputStream.flush();
-                    // Do not return here; continue the loop to keep the connection alive
-                    break;
-                }
+            InputStream inputStream = socket.getInputStream();
+            OutputStream outputStream = socket.getOutputStream();
+            RespParser parser = new RespParser();
+            while (parser.readFrom(inputStream) >= 0) {
+                // Run every pipelined command already received and answer the whole batch with one write
+                CommandArgs args;
+                while ((args = parser.next()) != null) {
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.fine("Received command " + args);
+                    }
+                    objectFactory.getCommandDispatcher().dispatch(args, session, output);
 
-                if (!isReplicaSocket && objectFactory.getProperties().isMaster() && isWriteCommand(args[0])) {
-                    objectFactory.getCommandReplicator().replicateWriteCommand(command);
+                    if (session.isReplica()) {
+                        output.writeTo(outputStream);
+                        if (session.needsFullSync()) {
+                            objectFactory.getCommandReplicator().fullSync(socket, session.isEofCapable());
+                        } else if (!objectFactory.getCommandReplicator().addReplica(new ReplicaClient(socket),
+                                session.getReplicationOffset())) {
+                            logger.warning("Replica " + session.getAddress()
+                                    + " fell behind the backlog before it was handed over");
+                            closeSocket();
+                        }
+                        // The replica client now owns the socket, stop reading from it here
+                        return;
+                    }
+                    CompletableFuture<byte[]> pendingReply = session.takePendingReply();
+                    if (pendingReply != null) {
+                        // The replies so far go out first. Joining parks a virtual thread, and a platform one
+                        // serves only this client anyway.
+                        output.writeTo(outputStream);
+                        output.write(pendingReply.join());
+                    }
+                    if (output.isFull()) {
+                        output.writeTo(outputStream);
+                    }
                 }
-
-                dataOutputStream.write(response);
+                parser.compact();
+                output.writeTo(outputStream);
             }
+        } catch (ProtocolException e) {
+            logger.warning("Protocol error from " + session.getAddress() + ": " + e.getMessage());
+            replyProtocolError(output, e);
         } catch (IOException e) {
             logger.severe("IOException in ConnectionHandler: " + e.getMessage());
+        } finally {
+            // A replica is no longer counted as a client once it is handed over, as in Redis
+            clientMetrics.clientDisconnected();
+            if (!session.isReplica()) {
+                closeSocket();
+            }
+            if (virtual) {
+                clientMetrics.virtualThreadFinished();
+            }
         }
     }
 
-    private boolean isWriteCommand(String command) {
-        return Set.of("SET", "DEL", "INCR", "DECR", "RPUSH", "LPUSH", "SADD", "ZADD")
-                .contains(command.toUpperCase());
+    /**
+     * Sends the replies of the commands before the bad frame, then the error, before the connection is closed.
+     */
+    private void replyProtocolError(ReplyBuffer output, ProtocolException e) {
+        output.writeError("ERR " + e.getMessage());
+        try {
+            output.writeTo(socket.getOutputStream());
+        } catch (IOException ioException) {
+            logger.fine("Error replying to a protocol error: " + ioException.getMessage());
+        }
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.fine("Error closing socket: " + e.getMessage());
+        }
     }
 }
@@ -0,0 +1,45 @@
+package command;
+
+import config.ObjectFactory;
+import protocol.CommandArgs;
+import protocol.ReplyBuffer;
+import storage.Key;
+import storage.Storage;
+
+public class Del extends AbstractHandler {
+    private final Storage storage;
+
+    public Del(ObjectFactory objectFactory) {
+        super(objectFactory);
+        this.storage = objectFactory.getPersistenceManager().getStorage();
+    }
+
+    @Override
+    public byte[] handle(String[] args) {
+        if (args.length < 2) {
+            return protocolSerializer.simpleError("ERR wrong number of arguments for 'del' command");
+        }
+        int deleted = 0;
+        for (int i = 1; i < args.length; i++) {
+            if (storage.delete(Key.of(args[i]))) {
+                deleted++;
+            }
+        }
+        return protocolSerializer.integer(deleted);
+    }
+
+    @Override
+    public void handle(CommandArgs args, ReplyBuffer reply) {
+        if (args.count() < 2) {
+            reply.writeError("ERR wrong number of arguments for 'del' command");
+            return;
+        }
+        int deleted = 0;
+        for (int i = 1; i < args.count(); i++) {
+            if (storage.delete(Key.of(args.buffer(), args.offset(i), args.length(i)))) {
+                deleted++;
+            }
+        }
+        reply.writeInteger(deleted);
+    }
+}
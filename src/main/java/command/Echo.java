@@ -1,6 +1,8 @@
 package command;
 
 import config.ObjectFactory;
+import protocol.CommandArgs;
+import protocol.ReplyBuffer;
 
 public class Echo extends AbstractHandler {
     public Echo(ObjectFactory objectFactory) {
@@ -9,6 +11,15 @@ public class Echo extends AbstractHandler {
 
     @Override
     public byte[] handle(String[] args) {
-        return protocolSerializer.simpleString(args[1]);
+        return protocolSerializer.bulkStrings(args[1]);
+    }
+
+    @Override
+    public void handle(CommandArgs args, ReplyBuffer reply) {
+        if (args.count() != 2) {
+            reply.writeError("ERR wrong number of arguments for 'echo' command");
+            return;
+        }
+        reply.writeBulkString(args.buffer(), args.offset(1), args.length(1));
     }
 }
@@ -0,0 +1,73 @@
+package command;
+
+import config.ObjectFactory;
+import storage.Key;
+import storage.Storage;
+import util.Clock;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EXPIRE, and through its subclasses PEXPIRE and PEXPIREAT. Whatever the form, replicas are sent a PEXPIREAT to
+ * the deadline the master set, so they expire the key when the master does however late they apply the command.
+ */
+public class Expire extends AbstractHandler {
+    private static final byte[] PEXPIREAT = "PEXPIREAT".getBytes(StandardCharsets.US_ASCII);
+
+    private final Storage storage;
+    private final TimeUnit unit;
+    private final boolean absolute;
+
+    /**
+     * The reply, and the command to replicate in its place, null if the command failed.
+     */
+    public record Outcome(byte[] reply, byte[] replicated) {
+    }
+
+    public Expire(ObjectFactory objectFactory) {
+        this(objectFactory, TimeUnit.SECONDS, false);
+    }
+
+    protected Expire(ObjectFactory objectFactory, TimeUnit unit, boolean absolute) {
+        super(objectFactory);
+        this.storage = objectFactory.getPersistenceManager().getStorage();
+        this.unit = unit;
+        this.absolute = absolute;
+    }
+
+    @Override
+    public byte[] handle(String[] args) {
+        return expire(args).reply();
+    }
+
+    public Outcome expire(String[] args) {
+        if (args.length != 3) {
+            return failed("ERR wrong number of arguments for '" + args[0].toLowerCase() + "' command");
+        }
+
+        long timeout;
+        try {
+            timeout = Long.parseLong(args[2]);
+        } catch (NumberFormatException e) {
+            return failed("ERR value is not an integer or out of range");
+        }
+
+        long expiresAt;
+        try {
+            // TimeUnit.toMillis saturates rather than failing, so convert by hand
+            long millis = Math.multiplyExact(timeout, unit.toMillis(1));
+            expiresAt = absolute ? millis : Math.addExact(Clock.millis(), millis);
+        } catch (ArithmeticException e) {
+            return failed("ERR invalid expire time in '" + args[0].toLowerCase() + "' command");
+        }
+
+        byte[] reply = protocolSerializer.integer(storage.expire(Key.of(args[1]), expiresAt) ? 1 : 0);
+        return new Outcome(reply, protocolSerializer.array(PEXPIREAT, args[1].getBytes(StandardCharsets.UTF_8),
+                Long.toString(expiresAt).getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private Outcome failed(String message) {
+        return new Outcome(protocolSerializer.simpleError(message), null);
+    }
+}
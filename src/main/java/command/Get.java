@@ -1,8 +1,10 @@
 package command;
 
 import config.ObjectFactory;
+import protocol.CommandArgs;
+import protocol.ReplyBuffer;
+import storage.Key;
 import storage.Storage;
-import storage.StorageRecord;
 
 public class Get extends AbstractHandler {
     private final Storage storage;
@@ -19,12 +21,24 @@ public class Get extends AbstractHandler {
         }
         
         String key = args[1];
-        StorageRecord record = storage.get(key);
+        byte[] value = storage.getValue(Key.of(key));
         
-        if (record == null) {
+        if (value == null) {
             return protocolSerializer.nullBulkString();
         }
         
-        return protocolSerializer.bulkStrings(new String(record.data()));
+        return protocolSerializer.bulkString(value);
+    }
+
+    @Override
+    public void handle(CommandArgs args, ReplyBuffer reply) {
+        if (args.count() != 2) {
+            reply.writeError("ERR wrong number of arguments for 'get' command");
+            return;
+        }
+
+        if (!storage.writeValue(Key.of(args.buffer(), args.offset(1), args.length(1)), reply)) {
+            reply.writeNullBulkString();
+        }
     }
 }
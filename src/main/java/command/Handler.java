@@ -2,7 +2,20 @@ package command;
 
 import java.io.IOException;
 
+import protocol.CommandArgs;
+import protocol.ReplyBuffer;
+
 public interface Handler {
 
     byte[] handle(String[] args) throws IOException;
+
+    /**
+     * Streaming variant used by the connection handlers: reads arguments straight from the parsed frame and
+     * encodes the reply into the connection's output buffer. Hot commands override it to avoid building
+     * strings and intermediate reply arrays; the default decodes the arguments and delegates to
+     * {@link #handle(String[])}.
+     */
+    default void handle(CommandArgs args, ReplyBuffer reply) throws IOException {
+        reply.write(handle(args.toStringArray()));
+    }
 }
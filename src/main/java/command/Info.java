@@ -1,6 +1,21 @@
 package command;
 
+import java.util.List;
+
+import config.ApplicationProperties;
 import config.ObjectFactory;
+import metrics.CommandMetrics;
+import metrics.CommandStats;
+import metrics.LatencyHistogram;
+import protocol.persistence.PersistenceManager;
+import protocol.persistence.RDBLoader;
+import replica.ReplicaClient;
+import replica.ReplicationBacklog;
+import server.ClientMetrics;
+import storage.Evictor;
+import storage.ExpiryWheel;
+import storage.SlabAllocator;
+import storage.Storage;
 
 public class Info extends AbstractHandler {
     public Info(ObjectFactory objectFactory) {
@@ -23,16 +38,164 @@ public class Info extends AbstractHandler {
     private byte[] parseArgs(String arg, String replicationRole) {
         return switch (arg) {
             case "replication" -> {
+                ApplicationProperties properties = ObjectFactory.getInstance().getProperties();
                 String replicationId = ObjectFactory.getInstance().getProperties().getReplicationId();
                 long replicationOffset = ObjectFactory.getInstance().getProperties().getReplicationOffset().get();
                 StringBuilder bulkString = new StringBuilder();
                 bulkString.append(replicationRole).append("\n");
                 bulkString.append("master_replid:").append(replicationId).append("\n");
+                if (properties.isMaster()) {
+                    List<ReplicaClient> replicaClients = properties.getReplicaClients();
+                    bulkString.append("connected_slaves:").append(replicaClients.size()).append("\n");
+                    long now = System.currentTimeMillis();
+                    for (int i = 0; i < replicaClients.size(); i++) {
+                        ReplicaClient replicaClient = replicaClients.get(i);
+                        bulkString.append("slave").append(i)
+                                .append(":ip=").append(replicaClient.getReplicaSocket().getInetAddress().getHostAddress())
+                                .append(",state=").append(replicaClient.isOnline() ? "online" : "send_bulk")
+                                .append(",offset=").append(replicaClient.getAckedOffset())
+                                .append(",lag=").append((now - replicaClient.getLastAckMillis()) / 1000).append("\n");
+                    }
+                }
                 bulkString.append("master_repl_offset:").append(replicationOffset).append("\n");
+                ReplicationBacklog backlog = ObjectFactory.getInstance().getCommandReplicator().getBacklog();
+                // Only a master feeds its backlog
+                bulkString.append("repl_backlog_active:").append(properties.isMaster() ? 1 : 0).append("\n");
+                bulkString.append("repl_backlog_size:").append(backlog.getSize()).append("\n");
+                bulkString.append("repl_backlog_first_byte_offset:").append(backlog.getFirstByteOffset()).append("\n");
+                bulkString.append("repl_backlog_histlen:").append(backlog.getHistlen()).append("\n");
+                yield protocolSerializer.bulkStrings(bulkString.toString());
+            }
+            case "clients" -> {
+                ApplicationProperties properties = ObjectFactory.getInstance().getProperties();
+                ClientMetrics clientMetrics = ObjectFactory.getInstance().getClientMetrics();
+                StringBuilder bulkString = new StringBuilder();
+                bulkString.append("connected_clients:").append(clientMetrics.getConnectedClients()).append("\n");
+                bulkString.append("total_connections_received:").append(clientMetrics.getTotalConnectionsReceived()).append("\n");
+                bulkString.append("io_mode:").append(properties.getIoMode().getValue()).append("\n");
+                bulkString.append("io_threads:").append(properties.getIoThreads()).append("\n");
+                bulkString.append("virtual_threads:").append(clientMetrics.getVirtualThreads()).append("\n");
+                bulkString.append("virtual_thread_carriers:").append(clientMetrics.getCarrierThreads()).append("\n");
+                bulkString.append("virtual_thread_parallelism:").append(clientMetrics.getCarrierParallelism()).append("\n");
+                yield protocolSerializer.bulkStrings(bulkString.toString());
+            }
+            case "stats" -> {
+                Storage storage = ObjectFactory.getInstance().getPersistenceManager().getStorage();
+                ExpiryWheel expiryWheel = storage.getExpiryWheel();
+                CommandMetrics commandMetrics = ObjectFactory.getInstance().getCommandMetrics();
+                StringBuilder bulkString = new StringBuilder();
+                bulkString.append("total_commands_processed:").append(commandMetrics.getTotalCommandsProcessed()).append("\n");
+                bulkString.append("total_error_replies:").append(commandMetrics.getErrorReplies()).append("\n");
+                bulkString.append("expired_keys:").append(storage.getExpiredKeys()).append("\n");
+                bulkString.append("evicted_keys:").append(storage.getEvictedKeys()).append("\n");
+                bulkString.append("expired_keys_active:").append(expiryWheel.getExpiredByCycle()).append("\n");
+                bulkString.append("expires_tracked:").append(expiryWheel.getTrackedEntries()).append("\n");
+                bulkString.append("expire_cycles:").append(expiryWheel.getCycles()).append("\n");
+                bulkString.append("expire_cycle_last_duration_us:").append(expiryWheel.getLastCycleMicros()).append("\n");
+                bulkString.append("expire_cycle_cpu_milliseconds:").append(expiryWheel.getTotalCycleMicros() / 1000).append("\n");
+                bulkString.append("expire_cycle_time_limit_reached:").append(expiryWheel.getBudgetExhaustedCycles()).append("\n");
+                yield protocolSerializer.bulkStrings(bulkString.toString());
+            }
+            case "commandstats" -> {
+                StringBuilder bulkString = new StringBuilder();
+                for (CommandStats stats : ObjectFactory.getInstance().getCommandMetrics().getCommands()) {
+                    bulkString.append("cmdstat_").append(stats.getName().toLowerCase())
+                            .append(":calls=").append(stats.getCalls())
+                            .append(",usec=").append(stats.getMicros())
+                            .append(",usec_per_call=").append(String.format("%.2f", stats.getMicrosPerCall()))
+                            .append(",rejected_calls=").append(stats.getRejectedCalls())
+                            .append(",failed_calls=").append(stats.getFailedCalls()).append("\n");
+                }
+                yield protocolSerializer.bulkStrings(bulkString.toString());
+            }
+            case "latencystats" -> {
+                StringBuilder bulkString = new StringBuilder();
+                for (CommandStats stats : ObjectFactory.getInstance().getCommandMetrics().getCommands()) {
+                    if (stats.getCalls() == 0) {
+                        continue;
+                    }
+                    LatencyHistogram latency = stats.getLatency();
+                    bulkString.append("latency_percentiles_usec_").append(stats.getName().toLowerCase())
+                            .append(":p50=").append(micros(latency.percentile(50)))
+                            .append(",p99=").append(micros(latency.percentile(99)))
+                            .append(",p99.9=").append(micros(latency.percentile(99.9))).append("\n");
+                }
+                yield protocolSerializer.bulkStrings(bulkString.toString());
+            }
+            case "memory" -> {
+                Storage storage = ObjectFactory.getInstance().getPersistenceManager().getStorage();
+                Evictor evictor = storage.getEvictor();
+                StringBuilder bulkString = new StringBuilder();
+                bulkString.append("used_memory:").append(storage.getUsedMemory()).append("\n");
+                bulkString.append("used_memory_human:").append(humanBytes(storage.getUsedMemory())).append("\n");
+                bulkString.append("maxmemory:").append(evictor.getMaxMemory()).append("\n");
+                bulkString.append("maxmemory_human:").append(humanBytes(evictor.getMaxMemory())).append("\n");
+                bulkString.append("maxmemory_policy:").append(evictor.getPolicy().getValue()).append("\n");
+                bulkString.append("storage_engine:").append(storage.getEngine().getValue()).append("\n");
+                SlabAllocator slabs = storage.getSlabs();
+                if (slabs != null) {
+                    bulkString.append("offheap_used:").append(slabs.getUsedBytes()).append("\n");
+                    bulkString.append("offheap_reserved:").append(slabs.getReservedBytes()).append("\n");
+                    bulkString.append("offheap_reserved_human:").append(humanBytes(slabs.getReservedBytes())).append("\n");
+                }
+                yield protocolSerializer.bulkStrings(bulkString.toString());
+            }
+            case "persistence" -> {
+                PersistenceManager persistenceManager = ObjectFactory.getInstance().getPersistenceManager();
+                StringBuilder bulkString = new StringBuilder();
+                boolean loading = persistenceManager.isLoading();
+                RDBLoader rdbLoader = persistenceManager.getRdbLoader();
+                bulkString.append("loading:").append(loading ? 1 : 0).append("\n");
+                if (loading) {
+                    long total = rdbLoader.getTotalBytes();
+                    long loaded = rdbLoader.getLoadedBytes();
+                    bulkString.append("loading_start_time:").append(persistenceManager.getLoadingStartTime() / 1000).append("\n");
+                    bulkString.append("loading_total_bytes:").append(total).append("\n");
+                    bulkString.append("loading_loaded_bytes:").append(loaded).append("\n");
+                    bulkString.append("loading_loaded_perc:").append(String.format("%.2f", total == 0 ? 0 : loaded * 100.0 / total)).append("\n");
+                    bulkString.append("loading_eta_seconds:").append(persistenceManager.getLoadingEtaSeconds()).append("\n");
+                }
+                bulkString.append("rdb_changes_since_last_save:").append(persistenceManager.getStorage().getDirty()).append("\n");
+                bulkString.append("rdb_bgsave_in_progress:").append(persistenceManager.isBackgroundSaveInProgress() ? 1 : 0).append("\n");
+                bulkString.append("rdb_last_save_time:").append(persistenceManager.getLastSaveTime() / 1000).append("\n");
+                bulkString.append("rdb_last_bgsave_status:").append(persistenceManager.isLastBackgroundSaveOk() ? "ok" : "err").append("\n");
+                bulkString.append("rdb_last_bgsave_time_sec:").append(seconds(persistenceManager.getLastBackgroundSaveMillis())).append("\n");
+                bulkString.append("rdb_current_bgsave_time_sec:").append(seconds(persistenceManager.getCurrentBackgroundSaveMillis())).append("\n");
+                bulkString.append("rdb_saves:").append(persistenceManager.getSaves()).append("\n");
+                bulkString.append("rdb_cow_keys:").append(persistenceManager.getCopiedKeys()).append("\n");
+                RDBLoader.LoadStats lastLoad = persistenceManager.getLastLoad();
+                if (lastLoad != null) {
+                    bulkString.append("rdb_last_load_keys_loaded:").append(lastLoad.keys()).append("\n");
+                    bulkString.append("rdb_last_load_keys_expired:").append(lastLoad.expiredKeys()).append("\n");
+                    bulkString.append("rdb_last_load_time_ms:").append(lastLoad.millis()).append("\n");
+                    bulkString.append("rdb_last_load_keys_per_sec:").append(Math.round(lastLoad.keysPerSecond())).append("\n");
+                    bulkString.append("rdb_last_load_mb_per_sec:").append(String.format("%.2f", lastLoad.megabytesPerSecond())).append("\n");
+                }
                 yield protocolSerializer.bulkStrings(bulkString.toString());
             }
-            case "persistence" -> "persistence:yes".getBytes();
             default -> "ERR unknown subcommand".getBytes();
         };
     }
+
+    private static long seconds(long millis) {
+        return millis < 0 ? -1 : millis / 1000;
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%.3f", nanos / 1000.0);
+    }
+
+    private static String humanBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + "B";
+        }
+        String units = "KMGTP";
+        double value = bytes;
+        int unit = -1;
+        while (value >= 1024 && unit < units.length() - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return String.format("%.2f%c", value, units.charAt(unit));
+    }
 }
@@ -7,6 +7,7 @@ import java.util.regex.Pattern;
 
 import config.ObjectFactory;
 import protocol.persistence.PersistenceManager;
+import storage.Key;
 
 public class Keys extends AbstractHandler {
     private final PersistenceManager persistenceManager;
@@ -23,8 +24,8 @@ public class Keys extends AbstractHandler {
         }
 
         String pattern = args[1];
-        Set<String> allKeys = persistenceManager.getStorage().getAllKeys();
-        List<String> matchedKeys = new ArrayList<>();
+        Set<Key> allKeys = persistenceManager.getStorage().getAllKeys();
+        List<Key> matchedKeys = new ArrayList<>();
 
         try {
             // Handle special case for "*" pattern
@@ -35,8 +36,8 @@ public class Keys extends AbstractHandler {
                 String regex = convertRedisPatternToRegex(pattern);
                 Pattern compiledPattern = Pattern.compile(regex);
 
-                for (String key : allKeys) {
-                    if (compiledPattern.matcher(key).matches()) {
+                for (Key key : allKeys) {
+                    if (compiledPattern.matcher(key.toString()).matches()) {
                         matchedKeys.add(key);
                     }
                 }
@@ -44,7 +45,7 @@ public class Keys extends AbstractHandler {
 
             // Convert matched keys to byte arrays
             byte[][] keyArrays = matchedKeys.stream()
-                    .map(String::getBytes)
+                    .map(Key::bytes)
                     .toArray(byte[][]::new);
 
             return protocolSerializer.array(keyArrays);
@@ -0,0 +1,24 @@
+package command;
+
+import config.ObjectFactory;
+import protocol.persistence.PersistenceManager;
+
+/**
+ * LASTSAVE: Unix time in seconds of the last successful save.
+ */
+public class LastSave extends AbstractHandler {
+    private final PersistenceManager persistenceManager;
+
+    public LastSave(ObjectFactory objectFactory) {
+        super(objectFactory);
+        this.persistenceManager = objectFactory.getPersistenceManager();
+    }
+
+    @Override
+    public byte[] handle(String[] args) {
+        if (args.length != 1) {
+            return protocolSerializer.simpleError("ERR wrong number of arguments for 'lastsave' command");
+        }
+        return protocolSerializer.integer(persistenceManager.getLastSaveTime() / 1000);
+    }
+}
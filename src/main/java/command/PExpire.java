@@ -0,0 +1,11 @@
+package command;
+
+import config.ObjectFactory;
+
+import java.util.concurrent.TimeUnit;
+
+public class PExpire extends Expire {
+    public PExpire(ObjectFactory objectFactory) {
+        super(objectFactory, TimeUnit.MILLISECONDS, false);
+    }
+}
@@ -0,0 +1,11 @@
+package command;
+
+import config.ObjectFactory;
+
+import java.util.concurrent.TimeUnit;
+
+public class PExpireAt extends Expire {
+    public PExpireAt(ObjectFactory objectFactory) {
+        super(objectFactory, TimeUnit.MILLISECONDS, true);
+    }
+}
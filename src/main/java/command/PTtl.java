@@ -0,0 +1,11 @@
+package command;
+
+import config.ObjectFactory;
+
+import java.util.concurrent.TimeUnit;
+
+public class PTtl extends Ttl {
+    public PTtl(ObjectFactory objectFactory) {
+        super(objectFactory, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,22 @@
+package command;
+
+import config.ObjectFactory;
+import storage.Key;
+import storage.Storage;
+
+public class Persist extends AbstractHandler {
+    private final Storage storage;
+
+    public Persist(ObjectFactory objectFactory) {
+        super(objectFactory);
+        this.storage = objectFactory.getPersistenceManager().getStorage();
+    }
+
+    @Override
+    public byte[] handle(String[] args) {
+        if (args.length != 2) {
+            return protocolSerializer.simpleError("ERR wrong number of arguments for 'persist' command");
+        }
+        return protocolSerializer.integer(storage.persist(Key.of(args[1])) ? 1 : 0);
+    }
+}
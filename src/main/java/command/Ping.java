@@ -1,6 +1,8 @@
 package command;
 
 import config.ObjectFactory;
+import protocol.CommandArgs;
+import protocol.ReplyBuffer;
 
 public class Ping extends AbstractHandler {
     public Ping(ObjectFactory objectFactory) {
@@ -11,4 +13,9 @@ public class Ping extends AbstractHandler {
     public byte[] handle(String[] args) {
         return protocolSerializer.simpleString("PONG");
     }
+
+    @Override
+    public void handle(CommandArgs args, ReplyBuffer reply) {
+        reply.writePong();
+    }
 }
@@ -1,114 +1,62 @@
 package command;
 
+import config.ApplicationProperties;
 import config.ObjectFactory;
-import org.apache.commons.lang3.ArrayUtils;
-import storage.StorageRecord;
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
-import java.nio.charset.StandardCharsets;
-import java.util.Map;
-import util.CRC64;
-
+import protocol.ReplyBuffer;
+import replica.CommandReplicator;
+
+/**
+ * Answers {@code PSYNC <replid> <offset>}. A replica of this master's replication ID whose offset, the first
+ * byte it is missing, is still in the backlog gets {@code +CONTINUE} and then the missed bytes; any other gets
+ * {@code +FULLRESYNC} and an RDB file of the dataset, from the {@link CommandReplicator#fullSync shared full
+ * resync} it joins once the connection is handed over.
+ */
 public class Psync extends AbstractHandler {
-    private static final byte RDB_OPCODE_SELECTDB = (byte) 0xFE;
-    private static final byte RDB_OPCODE_RESIZEDB = (byte) 0xFB;
-    private static final byte RDB_OPCODE_EOF = (byte) 0xFF;
-    private static final byte RDB_OPCODE_AUX = (byte) 0xFA;
-    private static final String REDIS_VERSION = "0011";
 
     public Psync(ObjectFactory objectFactory) {
         super(objectFactory);
     }
 
+    /**
+     * Without a connection to hand over there is nothing to stream to, so this only ever produces the reply to a
+     * partial resync, or an error.
+     */
     @Override
     public byte[] handle(String[] args) {
-        String replicationId = ObjectFactory.getInstance().getProperties().getReplicationId();
-        long replicationOffset = ObjectFactory.getInstance().getProperties().getReplicationOffset().getAcquire();
-        String response = String.format("FULLRESYNC %s %s", replicationId, replicationOffset);
-        byte[] fullRsyncResponseBytes = ObjectFactory.getInstance().getProtocolSerializer().simpleString(response);
-        
-        byte[] rdbFile = generateRdbFile();
-        byte[] sizePrefix = ("$" + rdbFile.length + "\r\n").getBytes();
-        byte[] responseBytes = ArrayUtils.addAll(fullRsyncResponseBytes, sizePrefix);
-        responseBytes = ArrayUtils.addAll(responseBytes, rdbFile);
-        return responseBytes;
-    }
-
-    private byte[] generateRdbFile() {
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-             DataOutputStream dos = new DataOutputStream(baos)) {
-            
-            // Write magic string and version
-            dos.write("REDIS".getBytes(StandardCharsets.UTF_8));
-            dos.write(REDIS_VERSION.getBytes(StandardCharsets.UTF_8));
-
-            // Write AUX fields
-            writeAux(dos, "redis-ver", "7.2.0");
-            writeAux(dos, "redis-bits", "64");
-
-            // Write SELECTDB
-            dos.write(RDB_OPCODE_SELECTDB);
-            writeLength(dos, 0);
-
-            // Get current storage data
-            Map<String, StorageRecord> data = ObjectFactory.getInstance()
-                .getPersistenceManager().getStorage().getStore();
-
-            // Write RESIZEDB
-            dos.write(RDB_OPCODE_RESIZEDB);
-            writeLength(dos, data.size());
-            writeLength(dos, 0); // No expiring keys for now
-
-            // Write key-value pairs
-            for (Map.Entry<String, StorageRecord> entry : data.entrySet()) {
-                writeString(dos, entry.getKey());
-                writeString(dos, new String(entry.getValue().data()));
-            }
-
-            // Write EOF
-            dos.write(RDB_OPCODE_EOF);
-
-            byte[] rdbData = baos.toByteArray();
-            
-            // Calculate and append CRC64
-            ByteArrayOutputStream finalBaos = new ByteArrayOutputStream();
-            finalBaos.write(rdbData);
-            writeLengthLittleEndian(finalBaos, CRC64.checksum(rdbData));
-            
-            return finalBaos.toByteArray();
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to generate RDB file", e);
-        }
-    }
-
-    private void writeAux(DataOutputStream dos, String key, String value) throws Exception {
-        dos.write(RDB_OPCODE_AUX);
-        writeString(dos, key);
-        writeString(dos, value);
-    }
-
-    private void writeString(DataOutputStream dos, String str) throws Exception {
-        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
-        writeLength(dos, bytes.length);
-        dos.write(bytes);
+        ReplyBuffer reply = new ReplyBuffer();
+        sync(args, new ClientSession(null), reply);
+        return reply.toByteArray();
     }
 
-    private void writeLength(DataOutputStream dos, int length) throws Exception {
-        if (length < (1 << 6)) {
-            dos.write(length & 0x3F);
-        } else if (length < (1 << 14)) {
-            dos.write(((length >> 8) & 0x3F) | 0x40);
-            dos.write(length & 0xFF);
-        } else {
-            dos.write(0x80);
-            dos.writeInt(length);
+    /**
+     * Writes the reply to a partial resync and marks the session as a replica to resume, or marks it as one to
+     * fully resync, whose reply comes with the RDB file. Leaves the session alone if the request is refused.
+     */
+    void sync(String[] args, ClientSession session, ReplyBuffer reply) {
+        if (args.length < 3) {
+            reply.writeError("ERR wrong number of arguments for 'psync' command");
+            return;
         }
-    }
-
-    private void writeLengthLittleEndian(ByteArrayOutputStream baos, long value) throws Exception {
-        for (int i = 0; i < 8; i++) {
-            baos.write((int) (value & 0xFF));
-            value >>= 8;
+        ApplicationProperties properties = ObjectFactory.getInstance().getProperties();
+        CommandReplicator replicator = ObjectFactory.getInstance().getCommandReplicator();
+        String replicationId = properties.getReplicationId();
+
+        if (args[1].equals(replicationId)) {
+            long from;
+            try {
+                from = Long.parseLong(args[2]);
+            } catch (NumberFormatException e) {
+                from = -1;
+            }
+            if (replicator.getBacklog().contains(from)) {
+                // The missed bytes are streamed from the backlog once the connection is handed over
+                logger.info("Partial resync from offset " + from);
+                reply.writeSimpleString("CONTINUE " + replicationId);
+                session.markReplica(from - 1);
+                return;
+            }
+            logger.info("Offset " + args[2] + " is not in the backlog, falling back to a full resync");
         }
+        session.markFullSync();
     }
 }
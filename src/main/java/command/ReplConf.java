@@ -7,10 +7,28 @@ import java.util.Set;
 import java.util.stream.Stream;
 
 public class ReplConf extends AbstractHandler {
+    private static final Set<String> CAPABILITIES = Set.of("psync2", "eof");
+
     public ReplConf(ObjectFactory objectFactory) {
         super(objectFactory);
     }
 
+    /**
+     * Handles the command from a client connection, remembering the capabilities a replica announces in its
+     * session.
+     */
+    byte[] handle(String[] args, ClientSession session) {
+        byte[] reply = handle(args);
+        if (args.length >= 3 && args[1].equalsIgnoreCase("capa") && reply[0] == '+') {
+            for (int i = 1; i + 1 < args.length; i += 2) {
+                if (args[i + 1].equalsIgnoreCase("eof")) {
+                    session.setEofCapable(true);
+                }
+            }
+        }
+        return reply;
+    }
+
     @Override
     public byte[] handle(String[] args) {
         String parameter = args[1].toLowerCase();
@@ -22,8 +40,12 @@ public class ReplConf extends AbstractHandler {
                 }
             }
             case "capa" -> {
-                if (!Set.of("psync2", "eof").contains(args[2].toLowerCase())) {
-                    return protocolSerializer.simpleError("ERR invalid capability");
+                // Redis replicas announce them all at once: capa eof capa psync2
+                for (int i = 1; i < args.length; i += 2) {
+                    if (i + 1 == args.length || !args[i].equalsIgnoreCase("capa")
+                            || !CAPABILITIES.contains(args[i + 1].toLowerCase())) {
+                        return protocolSerializer.simpleError("ERR invalid capability");
+                    }
                 }
             }
             case "getack" -> {
@@ -12,7 +12,11 @@ public class Save extends AbstractHandler {
 
     @Override
     public byte[] handle(String[] args) {
-        persistenceManager.getRdbProcessor().saveAllKeys();
+        try {
+            persistenceManager.save();
+        } catch (RuntimeException e) {
+            return protocolSerializer.simpleError("ERR " + e.getMessage());
+        }
         return protocolSerializer.simpleString("OK");
     }
 }
@@ -1,11 +1,13 @@
 package command;
 
 import config.ObjectFactory;
+import protocol.CommandArgs;
+import protocol.ReplyBuffer;
 import protocol.ValueType;
+import storage.Key;
 import storage.Storage;
-
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import storage.StorageRecord;
+import util.Clock;
 
 public class Set extends AbstractHandler {
     private final Storage storage;
@@ -17,30 +19,53 @@ public class Set extends AbstractHandler {
 
     @Override
     public byte[] handle(String[] args) {
-        logger.info("Handling set command ");
+        logger.fine("Handling set command ");
         if (args.length < 3) {
             return protocolSerializer.simpleError("ERR wrong number of arguments for 'set' command");
         }
 
         String key = args[1];
         String value = args[2];
-        Instant expiry = null;
+        long expiresAt = StorageRecord.NO_EXPIRY;
 
         // Handle expiration if provided
         if (args.length > 3) {
             try {
-                expiry = parseExpiry(args[3], args[4]);
+                expiresAt = parseExpiry(args[3], args.length > 4 ? args[4] : null);
             } catch (IllegalArgumentException e) {
                 return protocolSerializer.simpleError("ERR " + e.getMessage());
             }
         }
 
-        logger.info("Set key: " + key + ", value: " + value + ", expiry: " + expiry);
-        storage.set(key, value.getBytes(), ValueType.STRING, expiry);
+        logger.fine("Set key: " + key + ", value: " + value + ", expiresAt: " + expiresAt);
+        storage.set(Key.of(key), value.getBytes(), ValueType.STRING, expiresAt);
         return protocolSerializer.simpleString("OK");
     }
 
-    private Instant parseExpiry(String unit, String value) {
+    @Override
+    public void handle(CommandArgs args, ReplyBuffer reply) {
+        if (args.count() < 3) {
+            reply.writeError("ERR wrong number of arguments for 'set' command");
+            return;
+        }
+
+        long expiresAt = StorageRecord.NO_EXPIRY;
+        if (args.count() > 3) {
+            try {
+                expiresAt = parseExpiry(args.getString(3), args.count() > 4 ? args.getString(4) : null);
+            } catch (IllegalArgumentException e) {
+                reply.writeError("ERR " + e.getMessage());
+                return;
+            }
+        }
+
+        // Key and value are copied out of the read buffer as-is, so binary payloads are stored unchanged
+        storage.set(Key.of(args.buffer(), args.offset(1), args.length(1)),
+                args.buffer(), args.offset(2), args.length(2), ValueType.STRING, expiresAt);
+        reply.writeOk();
+    }
+
+    private long parseExpiry(String unit, String value) {
         int expiryValue;
         try {
             expiryValue = Integer.parseInt(value);
@@ -53,8 +78,8 @@ public class Set extends AbstractHandler {
         }
 
         return switch (unit.toUpperCase()) {
-            case "EX" -> Instant.now().plus(expiryValue, ChronoUnit.SECONDS);
-            case "PX" -> Instant.now().plus(expiryValue, ChronoUnit.MILLIS);
+            case "EX" -> Clock.millis() + expiryValue * 1000L;
+            case "PX" -> Clock.millis() + expiryValue;
             default -> throw new IllegalArgumentException("invalid expire time unit");
         };
     }
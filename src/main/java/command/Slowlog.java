@@ -0,0 +1,80 @@
+package command;
+
+import java.util.List;
+
+import config.ObjectFactory;
+import metrics.SlowLog;
+import protocol.CommandArgs;
+import protocol.ReplyBuffer;
+
+public class Slowlog extends AbstractHandler {
+    private static final int DEFAULT_GET_COUNT = 10;
+
+    private final SlowLog slowLog;
+
+    public Slowlog(ObjectFactory objectFactory) {
+        super(objectFactory);
+        this.slowLog = objectFactory.getSlowLog();
+    }
+
+    @Override
+    public byte[] handle(String[] args) {
+        ReplyBuffer reply = new ReplyBuffer();
+        execute(args, reply);
+        return reply.toByteArray();
+    }
+
+    @Override
+    public void handle(CommandArgs args, ReplyBuffer reply) {
+        execute(args.toStringArray(), reply);
+    }
+
+    private void execute(String[] args, ReplyBuffer reply) {
+        if (args.length < 2) {
+            reply.writeError("ERR wrong number of arguments for 'slowlog' command");
+            return;
+        }
+
+        switch (args[1].toUpperCase()) {
+            case "GET" -> {
+                int count = DEFAULT_GET_COUNT;
+                if (args.length > 2) {
+                    try {
+                        count = Integer.parseInt(args[2]);
+                    } catch (NumberFormatException e) {
+                        reply.writeError("ERR value is not an integer or out of range");
+                        return;
+                    }
+                    // -1 returns the whole log, like in Redis
+                    if (count < 0) {
+                        count = Integer.MAX_VALUE;
+                    }
+                }
+                writeEntries(slowLog.getEntries(count), reply);
+            }
+            case "LEN" -> reply.writeInteger(slowLog.getLength());
+            case "RESET" -> {
+                slowLog.reset();
+                reply.writeOk();
+            }
+            default -> reply.writeError("ERR unknown subcommand '" + args[1] + "'. Try SLOWLOG GET, LEN or RESET.");
+        }
+    }
+
+    private void writeEntries(List<SlowLog.Entry> entries, ReplyBuffer reply) {
+        reply.writeArrayHeader(entries.size());
+        for (SlowLog.Entry entry : entries) {
+            reply.writeArrayHeader(6);
+            reply.writeInteger(entry.id());
+            reply.writeInteger(entry.timestamp());
+            reply.writeInteger(entry.durationMicros());
+            reply.writeArrayHeader(entry.args().length);
+            for (byte[] arg : entry.args()) {
+                reply.writeBulkString(arg);
+            }
+            reply.writeBulkString(entry.clientAddress().getBytes());
+            // Client names are not supported
+            reply.writeBulkString(new byte[0]);
+        }
+    }
+}
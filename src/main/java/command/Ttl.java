@@ -0,0 +1,36 @@
+package command;
+
+import config.ObjectFactory;
+import storage.Key;
+import storage.Storage;
+
+import java.util.concurrent.TimeUnit;
+
+public class Ttl extends AbstractHandler {
+    private final Storage storage;
+    private final TimeUnit unit;
+
+    public Ttl(ObjectFactory objectFactory) {
+        this(objectFactory, TimeUnit.SECONDS);
+    }
+
+    protected Ttl(ObjectFactory objectFactory, TimeUnit unit) {
+        super(objectFactory);
+        this.storage = objectFactory.getPersistenceManager().getStorage();
+        this.unit = unit;
+    }
+
+    @Override
+    public byte[] handle(String[] args) {
+        if (args.length != 2) {
+            return protocolSerializer.simpleError("ERR wrong number of arguments for '" + args[0].toLowerCase() + "' command");
+        }
+
+        long ttlMillis = storage.ttlMillis(Key.of(args[1]));
+        if (ttlMillis < 0 || unit == TimeUnit.MILLISECONDS) {
+            return protocolSerializer.integer(ttlMillis);
+        }
+        // Round to the nearest second like Redis does
+        return protocolSerializer.integer((ttlMillis + 500) / 1000);
+    }
+}
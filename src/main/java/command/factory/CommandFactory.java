@@ -2,22 +2,51 @@ package command.factory;
 
 import command.*;
 import config.ObjectFactory;
+import protocol.CommandArgs;
 
 import java.lang.reflect.Constructor;
+import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.Map;
 import java.util.logging.Logger;
 
 public class CommandFactory {
     private static final Logger logger = Logger.getLogger(CommandFactory.class.getName());
+    // Commands by the length of their name, so a lookup only compares a few candidates
+    private static final Command[][] COMMANDS_BY_LENGTH = byLength();
     private final Map<Command, Handler> handlers = new EnumMap<>(Command.class);
 
-    public Handler getHandler(String command) {
-        Handler handler = handlers.get(Command.valueOf(command));
-        if (handler == null) {
-            throw new IllegalArgumentException("Unknown command: " + command);
+    /**
+     * The command named by the first argument, matched on its bytes ignoring case so the name is never decoded.
+     * Returns null for an unknown command.
+     */
+    public Command find(CommandArgs args) {
+        int length = args.length(0);
+        if (length >= COMMANDS_BY_LENGTH.length) {
+            return null;
         }
-        return handler;
+        for (Command command : COMMANDS_BY_LENGTH[length]) {
+            if (args.equalsIgnoreCase(0, command.name())) {
+                return command;
+            }
+        }
+        return null;
+    }
+
+    public Handler getHandler(Command command) {
+        return handlers.get(command);
+    }
+
+    private static Command[][] byLength() {
+        int maxLength = Arrays.stream(Command.values()).mapToInt(command -> command.name().length()).max().orElse(0);
+        Command[][] byLength = new Command[maxLength + 1][];
+        for (int length = 0; length <= maxLength; length++) {
+            int nameLength = length;
+            byLength[length] = Arrays.stream(Command.values())
+                    .filter(command -> command.name().length() == nameLength)
+                    .toArray(Command[]::new);
+        }
+        return byLength;
     }
 
     public CommandFactory(ObjectFactory objectFactory) {
@@ -35,18 +64,28 @@ public class CommandFactory {
     }
 
 
-    private enum Command {
+    public enum Command {
         PING(Ping.class),
         ECHO(Echo.class),
         SET(Set.class),
         GET(Get.class),
+        DEL(Del.class),
         CONFIG(Config.class),
         KEYS(Keys.class),
         SAVE(Save.class),
+        BGSAVE(BgSave.class),
+        LASTSAVE(LastSave.class),
         INFO(Info.class),
         PSYNC(Psync.class),
         REPLCONF(ReplConf.class),
-        WAIT(Wait.class),;
+        WAIT(Wait.class),
+        EXPIRE(Expire.class),
+        PEXPIRE(PExpire.class),
+        PEXPIREAT(PExpireAt.class),
+        TTL(Ttl.class),
+        PTTL(PTtl.class),
+        PERSIST(Persist.class),
+        SLOWLOG(Slowlog.class),;
 
         private final Class<? extends Handler> handler;
 
@@ -7,12 +7,32 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
 
 import replica.ReplicaClient;
+import storage.EvictionPolicy;
+import storage.StorageEngine;
 
 public class ApplicationProperties {
     private int port = 6379;
 
+    // Networking
+    private IoMode ioMode = IoMode.THREAD;
+    private int ioThreads = Runtime.getRuntime().availableProcessors();
+
+    // Memory
+    private StorageEngine storageEngine = StorageEngine.HEAP;
+    private long maxMemory;
+    private EvictionPolicy maxMemoryPolicy = EvictionPolicy.NOEVICTION;
+    private int maxMemorySamples = 5;
+
+    // Slow log
+    private long slowlogLogSlowerThan = 10000;
+    private int slowlogMaxLen = 128;
+
     //Replication
     private ReplicaProperties replicaProperties;
+    private int replBacklogSize = 1024 * 1024;
+    private OutputBufferLimit replicaOutputBufferLimit =
+            new OutputBufferLimit(256L * 1024 * 1024, 64L * 1024 * 1024, 60);
+    private int replDisklessSyncDelay = 5;
 
     //Replication Master
     private String replicationId;
@@ -23,6 +43,8 @@ public class ApplicationProperties {
     // RDB file properties
     private String dir = System.getProperty("user.dir");
     private String dbFileName = "dump.rdb";
+    private boolean rdbCompression = true;
+    private int rdbCompressionMinLength = 20;
 
     public ApplicationProperties(String[] args) {
         parseArgs(args);
@@ -44,6 +66,20 @@ public class ApplicationProperties {
                 case "port" -> port = Integer.parseInt(args[++i]);
                 case "dir" -> dir = args[++i];
                 case "dbfilename" -> dbFileName = args[++i];
+                case "rdbcompression" -> rdbCompression = parseYesNo(args[++i]);
+                case "rdbcompression-min-length" -> rdbCompressionMinLength = Math.max(0, Integer.parseInt(args[++i]));
+                case "io-mode" -> ioMode = IoMode.fromValue(args[++i]);
+                case "io-threads" -> ioThreads = Math.max(1, Integer.parseInt(args[++i]));
+                case "storage-engine" -> storageEngine = StorageEngine.fromValue(args[++i]);
+                case "maxmemory" -> maxMemory = parseMemory(args[++i]);
+                case "maxmemory-policy" -> maxMemoryPolicy = EvictionPolicy.fromValue(args[++i]);
+                case "maxmemory-samples" -> maxMemorySamples = Math.max(1, Integer.parseInt(args[++i]));
+                case "slowlog-log-slower-than" -> slowlogLogSlowerThan = Long.parseLong(args[++i]);
+                case "slowlog-max-len" -> slowlogMaxLen = Math.max(1, Integer.parseInt(args[++i]));
+                case "repl-backlog-size" -> replBacklogSize = Math.toIntExact(Math.max(16 * 1024,
+                        parseMemory(args[++i])));
+                case "client-output-buffer-limit" -> replicaOutputBufferLimit = OutputBufferLimit.parse(args[++i]);
+                case "repl-diskless-sync-delay" -> replDisklessSyncDelay = Math.max(0, Integer.parseInt(args[++i]));
                 case "replicaof" -> {
                     String[] replicaParams = args[++i].split(" ");
                     replicaProperties = new ReplicaProperties(replicaParams[0], Integer.parseInt(replicaParams[1]));
@@ -58,6 +94,48 @@ public class ApplicationProperties {
         this.replicationOffset = new AtomicLong(0);
     }
 
+    /**
+     * Parses a memory size the way redis.conf does: a plain number of bytes, or one with a k/kb, m/mb or g/gb
+     * suffix, where the "b" variants are powers of 1024.
+     */
+    public static long parseMemory(String value) {
+        String normalized = value.trim().toLowerCase();
+        int digits = normalized.length();
+        while (digits > 0 && Character.isLetter(normalized.charAt(digits - 1))) {
+            digits--;
+        }
+        long unit = switch (normalized.substring(digits)) {
+            case "", "b" -> 1;
+            case "k" -> 1000;
+            case "kb" -> 1024;
+            case "m" -> 1_000_000;
+            case "mb" -> 1024 * 1024;
+            case "g" -> 1_000_000_000;
+            case "gb" -> 1024L * 1024 * 1024;
+            default -> throw new IllegalArgumentException("Invalid memory size: " + value);
+        };
+        try {
+            long amount = Long.parseLong(normalized.substring(0, digits));
+            if (amount < 0) {
+                throw new IllegalArgumentException("Invalid memory size: " + value);
+            }
+            return Math.multiplyExact(amount, unit);
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid memory size: " + value);
+        }
+    }
+
+    /**
+     * Parses a boolean the way redis.conf does, as yes or no.
+     */
+    public static boolean parseYesNo(String value) {
+        return switch (value.trim().toLowerCase()) {
+            case "yes" -> true;
+            case "no" -> false;
+            default -> throw new IllegalArgumentException("Invalid boolean: " + value);
+        };
+    }
+
     public static String generateRandomString(int length) {
         SecureRandom random = new SecureRandom();
         StringBuilder sb = new StringBuilder(length);
@@ -75,6 +153,38 @@ public class ApplicationProperties {
         this.port = port;
     }
 
+    public IoMode getIoMode() {
+        return ioMode;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public StorageEngine getStorageEngine() {
+        return storageEngine;
+    }
+
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    public EvictionPolicy getMaxMemoryPolicy() {
+        return maxMemoryPolicy;
+    }
+
+    public int getMaxMemorySamples() {
+        return maxMemorySamples;
+    }
+
+    public long getSlowlogLogSlowerThan() {
+        return slowlogLogSlowerThan;
+    }
+
+    public int getSlowlogMaxLen() {
+        return slowlogMaxLen;
+    }
+
     public String getDir() {
         return dir;
     }
@@ -91,14 +201,66 @@ public class ApplicationProperties {
         this.dbFileName = dbFileName;
     }
 
+    public boolean isRdbCompression() {
+        return rdbCompression;
+    }
+
+    public void setRdbCompression(boolean rdbCompression) {
+        this.rdbCompression = rdbCompression;
+    }
+
+    /**
+     * Strings up to this length are saved uncompressed even with {@code rdbcompression} on.
+     */
+    public int getRdbCompressionMinLength() {
+        return rdbCompressionMinLength;
+    }
+
+    public void setRdbCompressionMinLength(int rdbCompressionMinLength) {
+        this.rdbCompressionMinLength = rdbCompressionMinLength;
+    }
+
     public ReplicaProperties getReplicaProperties() {
         return replicaProperties;
     }
 
+    /**
+     * Size of the circular buffer of recent replication stream that lets a reconnecting replica resume.
+     */
+    public int getReplBacklogSize() {
+        return replBacklogSize;
+    }
+
+    public OutputBufferLimit getReplicaOutputBufferLimit() {
+        return replicaOutputBufferLimit;
+    }
+
+    public void setReplicaOutputBufferLimit(OutputBufferLimit replicaOutputBufferLimit) {
+        this.replicaOutputBufferLimit = replicaOutputBufferLimit;
+    }
+
+    /**
+     * Seconds a full resync waits for more replicas to share its RDB file with, once one has asked for it.
+     */
+    public int getReplDisklessSyncDelay() {
+        return replDisklessSyncDelay;
+    }
+
+    public void setReplDisklessSyncDelay(int replDisklessSyncDelay) {
+        this.replDisklessSyncDelay = replDisklessSyncDelay;
+    }
+
+    /**
+     * This master's replication ID, or on a replica the ID of the master it last synced with.
+     */
     public String getReplicationId() {
         return replicationId;
     }
 
+    public void setReplicationId(String replicationId) {
+        this.replicationId = replicationId;
+    }
+
     public AtomicLong getReplicationOffset() {
         return replicationOffset;
     }
@@ -0,0 +1,26 @@
+package config;
+
+public enum IoMode {
+    THREAD("thread"),
+    VIRTUAL("virtual"),
+    NIO("nio");
+
+    private final String value;
+
+    IoMode(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public static IoMode fromValue(String value) {
+        for (IoMode mode : values()) {
+            if (mode.value.equalsIgnoreCase(value)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Invalid io-mode: " + value);
+    }
+}
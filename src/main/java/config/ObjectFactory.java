@@ -1,33 +1,34 @@
 package config;
 
+import command.CommandDispatcher;
 import command.factory.CommandFactory;
 
-import protocol.ProtocolDeserializer;
+import metrics.CommandMetrics;
+import metrics.SlowLog;
 import protocol.ProtocolSerializer;
 import protocol.persistence.PersistenceManager;
 import replica.CommandReplicator;
-import storage.StorageRecord;
-
-import java.io.IOException;
-import java.util.Map;
+import server.ClientMetrics;
+import storage.Evictor;
 
 
 public class ObjectFactory {
     private ApplicationProperties properties;
     private CommandFactory commandFactory;
+    private CommandDispatcher commandDispatcher;
     private ProtocolSerializer protocolSerializer;
-    private ProtocolDeserializer protocolDeserializer;
     private PersistenceManager persistenceManager;
     private CommandReplicator commandReplicator;
+    private ClientMetrics clientMetrics;
+    private CommandMetrics commandMetrics;
+    private SlowLog slowLog;
 
     private ObjectFactory() {
     }
 
-    public static ObjectFactory getInstance(String[] args) throws IOException {
+    public static ObjectFactory getInstance(String[] args) {
         if (ObjectFactoryHolder.INSTANCE.properties == null) {
             ObjectFactoryHolder.INSTANCE.init(args);
-            Map<String, StorageRecord> stringStorageRecordMap = ObjectFactoryHolder.INSTANCE.persistenceManager.getRdbLoader().readAllPairs();
-            ObjectFactoryHolder.INSTANCE.persistenceManager.getStorage().setStore(stringStorageRecordMap);
         }
         return ObjectFactoryHolder.INSTANCE;
     }
@@ -42,11 +43,22 @@ public class ObjectFactory {
 
     public void init(String[] args) {
         this.properties = new ApplicationProperties(args);
-        this.persistenceManager = new PersistenceManager();
+        this.persistenceManager = new PersistenceManager(properties.getStorageEngine());
+        this.persistenceManager.getStorage().getExpiryWheel().start();
+        Evictor evictor = this.persistenceManager.getStorage().getEvictor();
+        evictor.setMaxMemory(properties.getMaxMemory());
+        evictor.setPolicy(properties.getMaxMemoryPolicy());
+        evictor.setSamples(properties.getMaxMemorySamples());
         this.protocolSerializer = new ProtocolSerializer();
-        this.protocolDeserializer = new ProtocolDeserializer();
-        this.commandReplicator = new CommandReplicator();
+        this.commandReplicator = new CommandReplicator(properties.getReplBacklogSize());
+        if (properties.isMaster()) {
+            evictor.setEvictionListener(commandReplicator::replicateDelete);
+        }
+        this.clientMetrics = new ClientMetrics();
+        this.commandMetrics = new CommandMetrics();
+        this.slowLog = new SlowLog(properties.getSlowlogLogSlowerThan(), properties.getSlowlogMaxLen());
         this.commandFactory = new CommandFactory(ObjectFactoryHolder.INSTANCE);
+        this.commandDispatcher = new CommandDispatcher(ObjectFactoryHolder.INSTANCE);
     }
 
     public ApplicationProperties getProperties() {
@@ -57,12 +69,12 @@ public class ObjectFactory {
         return commandFactory;
     }
 
-    public ProtocolSerializer getProtocolSerializer() {
-        return protocolSerializer;
+    public CommandDispatcher getCommandDispatcher() {
+        return commandDispatcher;
     }
 
-    public ProtocolDeserializer getProtocolDeserializer() {
-        return protocolDeserializer;
+    public ProtocolSerializer getProtocolSerializer() {
+        return protocolSerializer;
     }
 
     public PersistenceManager getPersistenceManager() {
@@ -72,4 +84,16 @@ public class ObjectFactory {
     public CommandReplicator getCommandReplicator() {
         return commandReplicator;
     }
+
+    public ClientMetrics getClientMetrics() {
+        return clientMetrics;
+    }
+
+    public CommandMetrics getCommandMetrics() {
+        return commandMetrics;
+    }
+
+    public SlowLog getSlowLog() {
+        return slowLog;
+    }
 }
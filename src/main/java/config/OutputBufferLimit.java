@@ -0,0 +1,34 @@
+package config;
+
+/**
+ * How far a replica may fall behind the replication stream before it is disconnected, as in Redis's
+ * {@code client-output-buffer-limit replica <hard> <soft> <seconds>}: at once past the hard limit, or once it has
+ * stayed past the soft limit for that many seconds. A limit of 0 is no limit.
+ */
+public record OutputBufferLimit(long hardBytes, long softBytes, int softSeconds) {
+
+    /**
+     * Parses {@code replica <hard> <soft> <seconds>}, sizes in the memory format of {@code maxmemory}.
+     */
+    public static OutputBufferLimit parse(String value) {
+        String[] parts = value.trim().split("\\s+");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Expected '<class> <hard> <soft> <seconds>': " + value);
+        }
+        String clientClass = parts[0].toLowerCase();
+        if (!clientClass.equals("replica") && !clientClass.equals("slave")) {
+            throw new IllegalArgumentException("Output buffer limits are only supported for replicas: " + parts[0]);
+        }
+        int softSeconds = Integer.parseInt(parts[3]);
+        if (softSeconds < 0) {
+            throw new IllegalArgumentException("Invalid soft limit duration: " + parts[3]);
+        }
+        return new OutputBufferLimit(ApplicationProperties.parseMemory(parts[1]),
+                ApplicationProperties.parseMemory(parts[2]), softSeconds);
+    }
+
+    @Override
+    public String toString() {
+        return "replica " + hardBytes + " " + softBytes + " " + softSeconds;
+    }
+}
@@ -0,0 +1,124 @@
+package loadgen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Command line of the load generator. Everything after a lone {@code --} is passed to the embedded server.
+ */
+public class LoadOptions {
+    private String host = "127.0.0.1";
+    private int port = 6379;
+
+    // Load shape
+    private int clients = 50;
+    private int pipeline = 1;
+    private long rate;
+    private int durationSeconds = 10;
+    private int warmupSeconds = 2;
+
+    // Data
+    private Workload.Mix mix = Workload.Mix.parse("get=90,set=10");
+    private int valueSize = 64;
+    private int keyspace = 100_000;
+    private boolean populate = true;
+
+    // Embedded server
+    private boolean embedded;
+    private final List<String> serverArgs = new ArrayList<>();
+
+    public LoadOptions(String[] args) {
+        parseArgs(args);
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--")) {
+                serverArgs.addAll(Arrays.asList(args).subList(i + 1, args.length));
+                return;
+            }
+            String param = args[i].toLowerCase().substring(2);
+            switch (param) {
+                case "host" -> host = args[++i];
+                case "port" -> port = Integer.parseInt(args[++i]);
+                case "clients" -> clients = Math.max(1, Integer.parseInt(args[++i]));
+                case "pipeline" -> pipeline = Math.max(1, Integer.parseInt(args[++i]));
+                case "rate" -> rate = Math.max(0, Long.parseLong(args[++i]));
+                case "duration" -> durationSeconds = Math.max(1, Integer.parseInt(args[++i]));
+                case "warmup" -> warmupSeconds = Math.max(0, Integer.parseInt(args[++i]));
+                case "mix" -> mix = Workload.Mix.parse(args[++i]);
+                case "value-size" -> valueSize = Math.max(0, Integer.parseInt(args[++i]));
+                case "keyspace" -> keyspace = Math.max(1, Integer.parseInt(args[++i]));
+                case "no-populate" -> populate = false;
+                case "embedded" -> embedded = true;
+                default -> throw new IllegalArgumentException("Invalid argument: " + param);
+            }
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getClients() {
+        return clients;
+    }
+
+    public int getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Target requests per second over all connections, or 0 to send as fast as replies come back.
+     */
+    public long getRate() {
+        return rate;
+    }
+
+    public boolean isOpenLoop() {
+        return rate > 0;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public Workload.Mix getMix() {
+        return mix;
+    }
+
+    public int getValueSize() {
+        return valueSize;
+    }
+
+    public int getKeyspace() {
+        return keyspace;
+    }
+
+    public boolean isPopulate() {
+        return populate;
+    }
+
+    public boolean isEmbedded() {
+        return embedded;
+    }
+
+    /**
+     * Arguments for the embedded server, which always listens on {@link #getPort()}.
+     */
+    public String[] getServerArgs() {
+        List<String> args = new ArrayList<>(serverArgs);
+        args.add("--port");
+        args.add(String.valueOf(port));
+        return args.toArray(String[]::new);
+    }
+}
@@ -0,0 +1,61 @@
+package loadgen;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.LongAdder;
+
+import metrics.LatencyHistogram;
+
+/**
+ * Latencies and counts of the measured part of a run, shared by all connections.
+ * <p>
+ * Every request is recorded twice. The corrected latency runs from the time the schedule meant to send it, so
+ * a stall that holds back the following requests counts against them as well, as it would for real clients
+ * arriving at that rate. The uncorrected one runs from the time it was actually sent, which is what a closed-loop
+ * tool reports and hides those stalls; in closed-loop runs both are the same.
+ */
+public class LoadResults {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99, 100};
+
+    private final LatencyHistogram corrected = new LatencyHistogram();
+    private final LatencyHistogram uncorrected = new LatencyHistogram();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    void record(long correctedNanos, long uncorrectedNanos, boolean error) {
+        corrected.record(correctedNanos);
+        uncorrected.record(uncorrectedNanos);
+        requests.increment();
+        if (error) {
+            errors.increment();
+        }
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public void print(LoadOptions options, Workload workload, PrintStream out) {
+        long requests = getRequests();
+        out.printf("%d clients, pipeline %d, %s, %d s (+%d s warmup)%n", options.getClients(), options.getPipeline(),
+                options.isOpenLoop() ? String.format("open loop at %,d req/s", options.getRate()) : "closed loop",
+                options.getDurationSeconds(), options.getWarmupSeconds());
+        out.printf("mix %s, %d byte values, %,d keys%n%n", workload.getMix(), options.getValueSize(),
+                workload.getKeyspace());
+        out.printf("  requests     %,14d%n", requests);
+        out.printf("  errors       %,14d%n", getErrors());
+        out.printf("  throughput   %,14d req/s%n%n", requests / options.getDurationSeconds());
+        out.printf("  %-10s %14s %14s%n", "percentile", "corrected ms", "uncorrected ms");
+        for (double percentile : PERCENTILES) {
+            out.printf("  %-10s %14.3f %14.3f%n", percentile == 100 ? "max" : percentile,
+                    millis(corrected.percentile(percentile)), millis(uncorrected.percentile(percentile)));
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
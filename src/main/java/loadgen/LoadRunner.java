@@ -0,0 +1,159 @@
+package loadgen;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import protocol.ReplyBuffer;
+
+/**
+ * Drives the configured load over {@code clients} connections, each on its own thread.
+ * <p>
+ * In open-loop mode every connection follows a fixed schedule: batches of {@code pipeline} requests are due at
+ * regular intervals adding up to the requested rate, independently of how fast the server answers. A connection
+ * that falls behind sends its next batch at once and its latencies are measured from when the batch was due. In
+ * closed-loop mode a connection sends its next batch as soon as the previous one is answered.
+ */
+public class LoadRunner {
+    private static final Logger logger = Logger.getLogger(LoadRunner.class.getName());
+    private static final int POPULATE_BATCH = 1000;
+
+    private final LoadOptions options;
+    private final Workload workload;
+    private final LoadResults results = new LoadResults();
+
+    public LoadRunner(LoadOptions options) {
+        this.options = options;
+        this.workload = new Workload(options.getMix(), options.getKeyspace(), options.getValueSize());
+    }
+
+    public LoadResults run() throws IOException, InterruptedException {
+        if (options.isPopulate() && options.getMix().get() > 0) {
+            populate();
+        }
+
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < options.getClients(); i++) {
+                Socket socket = new Socket(options.getHost(), options.getPort());
+                socket.setTcpNoDelay(true);
+                sockets.add(socket);
+            }
+
+            int clients = sockets.size();
+            long batchInterval = options.isOpenLoop()
+                    ? Math.max(1, TimeUnit.SECONDS.toNanos(1) * clients * options.getPipeline() / options.getRate())
+                    : 0;
+            long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+            long measureFrom = start + TimeUnit.SECONDS.toNanos(options.getWarmupSeconds());
+            long end = measureFrom + TimeUnit.SECONDS.toNanos(options.getDurationSeconds());
+
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                // Spread the connections' schedules over the interval so batches don't all go out at once
+                Client client = new Client(sockets.get(i), i, start + batchInterval * i / clients, batchInterval, measureFrom, end);
+                threads.add(Thread.ofPlatform().name("load-client-" + i).start(client));
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+        return results;
+    }
+
+    public Workload getWorkload() {
+        return workload;
+    }
+
+    /**
+     * Sets every key of the keyspace, so that GETs hit.
+     */
+    private void populate() throws IOException {
+        try (Socket socket = new Socket(options.getHost(), options.getPort())) {
+            OutputStream outputStream = socket.getOutputStream();
+            ReplyReader reader = new ReplyReader(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            ReplyBuffer requests = new ReplyBuffer();
+            for (int key = 0; key < options.getKeyspace(); key += POPULATE_BATCH) {
+                int batch = Math.min(POPULATE_BATCH, options.getKeyspace() - key);
+                for (int i = 0; i < batch; i++) {
+                    workload.writeSet(requests, key + i);
+                }
+                requests.writeTo(outputStream);
+                for (int i = 0; i < batch; i++) {
+                    if (reader.readReply()) {
+                        throw new IOException("Server refused to populate the keyspace");
+                    }
+                }
+            }
+        }
+    }
+
+    private class Client implements Runnable {
+        private final Socket socket;
+        private final Random random;
+        private final long start;
+        private final long batchInterval;
+        private final long measureFrom;
+        private final long end;
+
+        Client(Socket socket, int index, long start, long batchInterval, long measureFrom, long end) {
+            this.socket = socket;
+            this.random = new Random(index);
+            this.start = start;
+            this.batchInterval = batchInterval;
+            this.measureFrom = measureFrom;
+            this.end = end;
+        }
+
+        @Override
+        public void run() {
+            try {
+                InputStream inputStream = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+                OutputStream outputStream = socket.getOutputStream();
+                ReplyReader reader = new ReplyReader(inputStream);
+                ReplyBuffer requests = new ReplyBuffer();
+                int pipeline = options.getPipeline();
+                long due = start;
+                while (batchInterval > 0 ? due < end : System.nanoTime() < end) {
+                    long now = System.nanoTime();
+                    if (now < due) {
+                        LockSupport.parkNanos(due - now);
+                        continue;
+                    }
+                    if (batchInterval == 0) {
+                        // Closed loop: the next batch is due as soon as the previous one has been answered
+                        due = now;
+                    }
+
+                    for (int i = 0; i < pipeline; i++) {
+                        workload.writeRequest(random, requests);
+                    }
+                    long sent = System.nanoTime();
+                    requests.writeTo(outputStream);
+                    for (int i = 0; i < pipeline; i++) {
+                        boolean error = reader.readReply();
+                        long received = System.nanoTime();
+                        if (due >= measureFrom) {
+                            results.record(received - due, received - sent, error);
+                        }
+                    }
+                    due += batchInterval;
+                }
+            } catch (IOException e) {
+                logger.severe("Connection failed: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package loadgen;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Consumes RESP replies without decoding them, only telling errors apart.
+ */
+class ReplyReader {
+    private final InputStream inputStream;
+
+    ReplyReader(InputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+    /**
+     * Reads one complete reply. Returns true if it was an error.
+     */
+    boolean readReply() throws IOException {
+        int type = read();
+        long length = readLine(type == ':' || type == '$' || type == '*');
+        switch (type) {
+            case '+', ':' -> {
+                return false;
+            }
+            case '-' -> {
+                return true;
+            }
+            case '$' -> {
+                if (length >= 0) {
+                    skip(length + 2);
+                }
+                return false;
+            }
+            case '*' -> {
+                boolean error = false;
+                for (long i = 0; i < length; i++) {
+                    error |= readReply();
+                }
+                return error;
+            }
+            default -> throw new IOException("Unexpected reply type '" + (char) type + "'");
+        }
+    }
+
+    /**
+     * Skips to the end of the line, parsing it as a number when asked to.
+     */
+    private long readLine(boolean numeric) throws IOException {
+        long value = 0;
+        boolean negative = false;
+        int b;
+        while ((b = read()) != '\r') {
+            if (!numeric) {
+                continue;
+            }
+            if (b == '-') {
+                negative = true;
+            } else {
+                value = value * 10 + (b - '0');
+            }
+        }
+        read();
+        return negative ? -value : value;
+    }
+
+    private void skip(long count) throws IOException {
+        while (count > 0) {
+            long skipped = inputStream.skip(count);
+            if (skipped <= 0) {
+                read();
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private int read() throws IOException {
+        int b = inputStream.read();
+        if (b < 0) {
+            throw new EOFException("Connection closed by server");
+        }
+        return b;
+    }
+}
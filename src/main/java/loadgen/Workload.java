@@ -0,0 +1,116 @@
+package loadgen;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import protocol.ReplyBuffer;
+
+/**
+ * Encodes the requests of a run: a random mix of {@code GET} and {@code SET} on {@code key:<n>} and {@code INCR}
+ * on {@code counter:<n>}, with keys drawn uniformly from the keyspace.
+ */
+public class Workload {
+    private static final byte[] GET = "GET".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SET = "SET".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INCR = "INCR".getBytes(StandardCharsets.US_ASCII);
+
+    private final Mix mix;
+    private final int keyspace;
+    private final byte[] value;
+
+    public enum Operation {
+        GET, SET, INCR
+    }
+
+    /**
+     * Relative weights of the operations, given as e.g. {@code get=80,set=15,incr=5}.
+     */
+    public record Mix(int get, int set, int incr) {
+
+        public static Mix parse(String value) {
+            int get = 0;
+            int set = 0;
+            int incr = 0;
+            for (String part : value.toLowerCase().split(",")) {
+                String[] weight = part.trim().split("=");
+                if (weight.length != 2) {
+                    throw new IllegalArgumentException("Invalid mix: " + value);
+                }
+                int amount = Integer.parseInt(weight[1].trim());
+                if (amount < 0) {
+                    throw new IllegalArgumentException("Invalid mix: " + value);
+                }
+                switch (weight[0].trim()) {
+                    case "get" -> get = amount;
+                    case "set" -> set = amount;
+                    case "incr" -> incr = amount;
+                    default -> throw new IllegalArgumentException("Unknown operation in mix: " + weight[0]);
+                }
+            }
+            if (get + set + incr == 0) {
+                throw new IllegalArgumentException("Invalid mix: " + value);
+            }
+            return new Mix(get, set, incr);
+        }
+
+        Operation pick(Random random) {
+            int roll = random.nextInt(get + set + incr);
+            if (roll < get) {
+                return Operation.GET;
+            }
+            return roll < get + set ? Operation.SET : Operation.INCR;
+        }
+
+        @Override
+        public String toString() {
+            return "get=" + get + ",set=" + set + ",incr=" + incr;
+        }
+    }
+
+    public Workload(Mix mix, int keyspace, int valueSize) {
+        this.mix = mix;
+        this.keyspace = keyspace;
+        this.value = new byte[valueSize];
+        new Random(42).nextBytes(value);
+    }
+
+    /**
+     * Appends one request picked from the mix.
+     */
+    public void writeRequest(Random random, ReplyBuffer out) {
+        int key = random.nextInt(keyspace);
+        switch (mix.pick(random)) {
+            case GET -> writeCommand(out, GET, key("key:", key));
+            case SET -> writeSet(out, key);
+            case INCR -> writeCommand(out, INCR, key("counter:", key));
+        }
+    }
+
+    /**
+     * Appends a {@code SET} of the {@code key}-th key, used to fill the keyspace before the run.
+     */
+    public void writeSet(ReplyBuffer out, int key) {
+        out.writeArrayHeader(3);
+        out.writeBulkString(SET);
+        out.writeBulkString(key("key:", key));
+        out.writeBulkString(value);
+    }
+
+    private static void writeCommand(ReplyBuffer out, byte[] command, byte[] key) {
+        out.writeArrayHeader(2);
+        out.writeBulkString(command);
+        out.writeBulkString(key);
+    }
+
+    private static byte[] key(String prefix, int index) {
+        return (prefix + index).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public Mix getMix() {
+        return mix;
+    }
+
+    public int getKeyspace() {
+        return keyspace;
+    }
+}
@@ -0,0 +1,75 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histogram of one command.
+ */
+public class CommandStats {
+    private final String name;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder failedCalls = new LongAdder();
+    private final LongAdder rejectedCalls = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    CommandStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records a call that ran, whether or not it replied with an error.
+     */
+    public void record(long durationNanos, boolean failed) {
+        calls.increment();
+        nanos.add(durationNanos);
+        latency.record(durationNanos);
+        if (failed) {
+            failedCalls.increment();
+        }
+    }
+
+    /**
+     * Records a call refused before it ran, such as a write over {@code maxmemory}.
+     */
+    public void recordRejected() {
+        rejectedCalls.increment();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getMicros() {
+        return nanos.sum() / 1000;
+    }
+
+    public double getMicrosPerCall() {
+        long calls = getCalls();
+        return calls == 0 ? 0 : nanos.sum() / 1000.0 / calls;
+    }
+
+    public long getFailedCalls() {
+        return failedCalls.sum();
+    }
+
+    public long getRejectedCalls() {
+        return rejectedCalls.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    void reset() {
+        calls.reset();
+        nanos.reset();
+        failedCalls.reset();
+        rejectedCalls.reset();
+        latency.reset();
+    }
+}
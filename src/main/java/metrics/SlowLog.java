@@ -0,0 +1,132 @@
+package metrics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import protocol.CommandArgs;
+
+/**
+ * The commands that took longer than {@code slowlog-log-slower-than} microseconds, newest first, at most
+ * {@code slowlog-max-len} of them.
+ * <p>
+ * Entries go into a ring buffer: a writer takes the next id from an atomic counter and stores its entry in the
+ * slot that id maps to, overwriting the oldest. The fast path for a command under the threshold is a single
+ * comparison. Readers walk back from the latest id and skip slots that have been overwritten or not yet filled,
+ * so they never block writers either.
+ */
+public class SlowLog {
+    private static final int MAX_ARGS = 32;
+    private static final int MAX_ARG_BYTES = 128;
+
+    public record Entry(long id, long timestamp, long durationMicros, byte[][] args, String clientAddress) {
+    }
+
+    /**
+     * The slots with the first id they are valid for, replaced as a whole by RESET and by resizing.
+     */
+    private record Ring(AtomicReferenceArray<Entry> entries, long firstId) {
+    }
+
+    private final AtomicLong nextId = new AtomicLong();
+    private volatile long slowerThanMicros;
+    private volatile Ring ring;
+
+    public SlowLog(long slowerThanMicros, int maxLength) {
+        this.slowerThanMicros = slowerThanMicros;
+        this.ring = new Ring(new AtomicReferenceArray<>(Math.max(1, maxLength)), 0);
+    }
+
+    /**
+     * Logs the command if it was slow enough. A negative threshold disables the log, zero logs everything.
+     */
+    public void record(CommandArgs args, String clientAddress, long durationNanos) {
+        long threshold = slowerThanMicros;
+        long durationMicros = durationNanos / 1000;
+        if (threshold < 0 || durationMicros < threshold) {
+            return;
+        }
+        long id = nextId.getAndIncrement();
+        Entry entry = new Entry(id, System.currentTimeMillis() / 1000, durationMicros, truncate(args), clientAddress);
+        Ring ring = this.ring;
+        ring.entries().set(slot(ring, id), entry);
+    }
+
+    /**
+     * Up to {@code count} of the most recent entries, newest first.
+     */
+    public List<Entry> getEntries(int count) {
+        Ring ring = this.ring;
+        List<Entry> entries = new ArrayList<>();
+        long last = nextId.get() - 1;
+        long first = Math.max(ring.firstId(), last - ring.entries().length() + 1);
+        for (long id = last; id >= first && entries.size() < count; id--) {
+            Entry entry = ring.entries().get(slot(ring, id));
+            // A slot can still hold an older entry, or already a newer one
+            if (entry != null && entry.id() == id) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    public int getLength() {
+        return getEntries(Integer.MAX_VALUE).size();
+    }
+
+    public void reset() {
+        ring = new Ring(new AtomicReferenceArray<>(ring.entries().length()), nextId.get());
+    }
+
+    public long getSlowerThanMicros() {
+        return slowerThanMicros;
+    }
+
+    public void setSlowerThanMicros(long slowerThanMicros) {
+        this.slowerThanMicros = slowerThanMicros;
+    }
+
+    public int getMaxLength() {
+        return ring.entries().length();
+    }
+
+    /**
+     * Resizes the ring, keeping the most recent entries that still fit.
+     */
+    public void setMaxLength(int maxLength) {
+        Ring resized = new Ring(new AtomicReferenceArray<>(Math.max(1, maxLength)), ring.firstId());
+        for (Entry entry : getEntries(maxLength)) {
+            resized.entries().set(slot(resized, entry.id()), entry);
+        }
+        ring = resized;
+    }
+
+    private static int slot(Ring ring, long id) {
+        return (int) (id % ring.entries().length());
+    }
+
+    /**
+     * Copies the arguments the way Redis keeps them in the slow log: at most {@value #MAX_ARGS} arguments of at
+     * most {@value #MAX_ARG_BYTES} bytes, with a note of how much was cut.
+     */
+    private static byte[][] truncate(CommandArgs args) {
+        int count = Math.min(args.count(), MAX_ARGS);
+        byte[][] copy = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            if (i == MAX_ARGS - 1 && args.count() > MAX_ARGS) {
+                copy[i] = ("... (" + (args.count() - MAX_ARGS + 1) + " more arguments)").getBytes(StandardCharsets.US_ASCII);
+            } else if (args.length(i) > MAX_ARG_BYTES) {
+                byte[] suffix = ("... (" + (args.length(i) - MAX_ARG_BYTES) + " more bytes)").getBytes(StandardCharsets.US_ASCII);
+                byte[] arg = new byte[MAX_ARG_BYTES + suffix.length];
+                System.arraycopy(args.buffer(), args.offset(i), arg, 0, MAX_ARG_BYTES);
+                System.arraycopy(suffix, 0, arg, MAX_ARG_BYTES, suffix.length);
+                copy[i] = arg;
+            } else {
+                copy[i] = args.getBytes(i);
+            }
+        }
+        return copy;
+    }
+}
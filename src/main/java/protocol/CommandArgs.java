@@ -0,0 +1,112 @@
+package protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Arguments of one parsed command, kept as offset/length slices into the connection's read buffer.
+ * Nothing is copied or decoded until a caller asks for a {@code String} or {@code byte[]}, and the slices are
+ * only valid until the owning {@link RespParser} compacts or grows its buffer.
+ */
+public class CommandArgs {
+    private static final int INITIAL_CAPACITY = 8;
+    private static final int MAX_RETAINED_CAPACITY = 1024;
+
+    private byte[] buffer;
+    private int[] offsets = new int[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private int count;
+    private int frameLength;
+
+    void reset(byte[] buffer) {
+        this.buffer = buffer;
+        this.count = 0;
+        this.frameLength = 0;
+        if (offsets.length > MAX_RETAINED_CAPACITY) {
+            // Don't keep huge arrays around after one command with many arguments
+            offsets = new int[INITIAL_CAPACITY];
+            lengths = new int[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * Appends the next argument. The arrays grow as arguments actually arrive, rather than to the count announced
+     * by the frame header, which the client could inflate.
+     */
+    void add(int offset, int length) {
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+            lengths = Arrays.copyOf(lengths, count * 2);
+        }
+        offsets[count] = offset;
+        lengths[count] = length;
+        count++;
+    }
+
+    void setFrameLength(int frameLength) {
+        this.frameLength = frameLength;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Exact number of bytes the command occupied on the wire, used to advance replication offsets.
+     */
+    public int frameLength() {
+        return frameLength;
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int offset(int index) {
+        return offsets[index];
+    }
+
+    public int length(int index) {
+        return lengths[index];
+    }
+
+    public byte[] getBytes(int index) {
+        return Arrays.copyOfRange(buffer, offsets[index], offsets[index] + lengths[index]);
+    }
+
+    public String getString(int index) {
+        return new String(buffer, offsets[index], lengths[index], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares an argument with an ASCII literal, ignoring case, without decoding it.
+     */
+    public boolean equalsIgnoreCase(int index, String ascii) {
+        int length = lengths[index];
+        if (length != ascii.length()) {
+            return false;
+        }
+        int offset = offsets[index];
+        for (int i = 0; i < length; i++) {
+            int b = buffer[offset + i];
+            int c = ascii.charAt(i);
+            if (b != c && !(Character.isLetter(c) && (b | 0x20) == (c | 0x20))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String[] toStringArray() {
+        String[] args = new String[count];
+        for (int i = 0; i < count; i++) {
+            args[i] = getString(i);
+        }
+        return args;
+    }
+
+    @Override
+    public String toString() {
+        return String.join(" ", toStringArray());
+    }
+}
@@ -20,7 +20,7 @@ public class ProtocolDeserializer {
             }
 
             char c = (char) firstByte;
-            logger.info("Parsing input: " + c);
+            logger.fine("Parsing input: " + c);
             return switch (c) {
                 case '*' -> parseArray(dataInputStream);
                 case '$' -> parseBulkString(dataInputStream);
@@ -0,0 +1,13 @@
+package protocol;
+
+/**
+ * Thrown by {@link RespParser} for input that is not a valid RESP command frame. The connection cannot be
+ * resynchronised after one, so it is answered with the message, as a Redis protocol error, and closed.
+ */
+public class ProtocolException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    public ProtocolException(String message) {
+        super(message);
+    }
+}
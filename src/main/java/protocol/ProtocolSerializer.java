@@ -1,5 +1,7 @@
 package protocol;
 
+import java.nio.charset.StandardCharsets;
+
 public class ProtocolSerializer {
     private static final String CRLF = "\r\n";
 
@@ -12,7 +14,13 @@ public class ProtocolSerializer {
     }
 
     public byte[] bulkStrings(String value) {
-        return ("$" + value.length() + CRLF + value + CRLF).getBytes();
+        return bulkString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public byte[] bulkString(byte[] value) {
+        ReplyBuffer reply = new ReplyBuffer(value.length + 16);
+        reply.writeBulkString(value);
+        return reply.toByteArray();
     }
 
     public byte[] integer(long value) {
@@ -20,13 +28,16 @@ public class ProtocolSerializer {
     }
 
     public byte[] array(byte[]... values) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("*").append(values.length).append(CRLF);
+        int size = 16;
+        for (byte[] value : values) {
+            size += value.length + 16;
+        }
+        ReplyBuffer reply = new ReplyBuffer(size);
+        reply.writeArrayHeader(values.length);
         for (byte[] value : values) {
-            sb.append("$").append(value.length).append(CRLF);
-            sb.append(new String(value)).append(CRLF);
+            reply.writeBulkString(value);
         }
-        return sb.toString().getBytes();
+        return reply.toByteArray();
     }
 
     public byte[] nullArray() {
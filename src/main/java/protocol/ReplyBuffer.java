@@ -0,0 +1,282 @@
+package protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Per-connection output buffer that accumulates the replies of a pipelined batch so they reach the socket in
+ * as few writes as possible. Supports partial, non-blocking drains to a channel.
+ * <p>
+ * Handlers encode replies straight into it: constant replies are copied from pre-encoded arrays, bulk payloads
+ * are copied from the stored {@code byte[]} and length prefixes are written digit by digit, so a typical reply
+ * allocates nothing.
+ */
+public class ReplyBuffer {
+    /**
+     * Pending output size at which a batch is flushed before the remaining pipelined commands run.
+     */
+    public static final int FLUSH_THRESHOLD = 64 * 1024;
+
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+    private static final int SHARED_INTEGERS = 10000;
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] OK = encodeAscii("+OK\r\n");
+    private static final byte[] PONG = encodeAscii("+PONG\r\n");
+    private static final byte[] NULL_BULK_STRING = encodeAscii("$-1\r\n");
+    private static final byte[] NULL_ARRAY = encodeAscii("*-1\r\n");
+    private static final byte[][] INTEGERS = new byte[SHARED_INTEGERS][];
+
+    static {
+        for (int i = 0; i < SHARED_INTEGERS; i++) {
+            INTEGERS[i] = encodeAscii(":" + i + "\r\n");
+        }
+    }
+
+    private final int initialCapacity;
+    private byte[] bytes;
+    private int size;
+    private int readIndex;
+
+    public ReplyBuffer() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public ReplyBuffer(int initialCapacity) {
+        this.initialCapacity = initialCapacity;
+        this.bytes = new byte[initialCapacity];
+    }
+
+    public void writeOk() {
+        write(OK);
+    }
+
+    public void writePong() {
+        write(PONG);
+    }
+
+    public void writeNullBulkString() {
+        write(NULL_BULK_STRING);
+    }
+
+    public void writeNullArray() {
+        write(NULL_ARRAY);
+    }
+
+    /**
+     * Writes {@code +value\r\n}. The value must be ASCII without CR or LF.
+     */
+    public void writeSimpleString(String value) {
+        writeByte('+');
+        writeAscii(value);
+        write(CRLF);
+    }
+
+    /**
+     * Writes {@code -message\r\n}. The message must be ASCII without CR or LF.
+     */
+    public void writeError(String message) {
+        writeByte('-');
+        writeAscii(message);
+        write(CRLF);
+    }
+
+    public void writeInteger(long value) {
+        if (value >= 0 && value < SHARED_INTEGERS) {
+            write(INTEGERS[(int) value]);
+            return;
+        }
+        writeByte(':');
+        writeDecimal(value);
+        write(CRLF);
+    }
+
+    public void writeBulkString(byte[] value) {
+        writeBulkString(value, 0, value.length);
+    }
+
+    public void writeBulkString(byte[] value, int offset, int length) {
+        writeBulkStringHeader(length);
+        write(value, offset, length);
+        write(CRLF);
+    }
+
+    /**
+     * Writes a bulk string whose payload is copied straight out of off-heap memory.
+     */
+    public void writeBulkString(MemorySegment segment, long offset, int length) {
+        writeBulkStringHeader(length);
+        ensureCapacity(length);
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, offset, bytes, size, length);
+        size += length;
+        write(CRLF);
+    }
+
+    /**
+     * Writes only the {@code $length\r\n} prefix of a bulk string; the caller supplies the payload followed by
+     * {@link #writeCrlf()}.
+     */
+    public void writeBulkStringHeader(int length) {
+        writeByte('$');
+        writeDecimal(length);
+        write(CRLF);
+    }
+
+    public void writeArrayHeader(int length) {
+        writeByte('*');
+        writeDecimal(length);
+        write(CRLF);
+    }
+
+    public void writeCrlf() {
+        write(CRLF);
+    }
+
+    public void writeByte(int value) {
+        ensureCapacity(1);
+        bytes[size++] = (byte) value;
+    }
+
+    public void write(byte[] data) {
+        write(data, 0, data.length);
+    }
+
+    public void write(byte[] data, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(data, offset, bytes, size, length);
+        size += length;
+    }
+
+    /**
+     * Number of bytes written but not yet drained.
+     */
+    public int pending() {
+        return size - readIndex;
+    }
+
+    public boolean isEmpty() {
+        return size == readIndex;
+    }
+
+    public boolean isFull() {
+        return pending() >= FLUSH_THRESHOLD;
+    }
+
+    /**
+     * Marks the current end of the output, for {@link #rewind(int)}.
+     */
+    public int mark() {
+        return pending();
+    }
+
+    /**
+     * Drops everything written since {@code mark} was taken. Only valid while nothing has been drained in between.
+     */
+    public void rewind(int mark) {
+        size = readIndex + mark;
+    }
+
+    /**
+     * Whether the reply written since {@code mark} was taken is an error.
+     */
+    public boolean isErrorSince(int mark) {
+        return pending() > mark && bytes[readIndex + mark] == '-';
+    }
+
+    /**
+     * Copies the pending bytes into a new array, for callers that still need a standalone reply.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOfRange(bytes, readIndex, size);
+    }
+
+    /**
+     * Writes all pending bytes to a blocking stream and flushes it.
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        if (!isEmpty()) {
+            outputStream.write(bytes, readIndex, pending());
+            outputStream.flush();
+        }
+        clear();
+    }
+
+    /**
+     * Writes as many pending bytes as the channel accepts. Returns true once the buffer has been drained.
+     */
+    public boolean writeTo(WritableByteChannel channel) throws IOException {
+        while (!isEmpty()) {
+            int written = channel.write(ByteBuffer.wrap(bytes, readIndex, pending()));
+            if (written == 0) {
+                return false;
+            }
+            readIndex += written;
+        }
+        clear();
+        return true;
+    }
+
+    public void clear() {
+        size = 0;
+        readIndex = 0;
+        if (bytes.length > MAX_RETAINED_CAPACITY) {
+            // Don't keep a huge buffer around after one large reply
+            bytes = new byte[initialCapacity];
+        }
+    }
+
+    private void writeAscii(String value) {
+        int length = value.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            bytes[size++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeDecimal(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            writeByte('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        for (int i = size + digits - 1; i >= size; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+    }
+
+    private static byte[] encodeAscii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional <= bytes.length) {
+            return;
+        }
+        if (readIndex > 0) {
+            System.arraycopy(bytes, readIndex, bytes, 0, pending());
+            size -= readIndex;
+            readIndex = 0;
+            if (size + additional <= bytes.length) {
+                return;
+            }
+        }
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+    }
+}
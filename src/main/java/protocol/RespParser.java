@@ -0,0 +1,178 @@
+package protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental parser for RESP command frames (arrays of bulk strings) over a reusable, per-connection buffer.
+ * <p>
+ * Bytes are appended to {@link #writableBuffer()} as they arrive; {@link #next()} returns the next complete
+ * command or {@code null} if only part of a frame has been received, in which case nothing is consumed and the
+ * frame is re-scanned after the next read. Arguments are exposed as slices of the buffer through a reused
+ * {@link CommandArgs}, so a parsed command must be fully handled before calling {@link #compact()} or reading
+ * more input.
+ */
+public class RespParser {
+    private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+    private static final int MAX_ARGUMENTS = 1024 * 1024;
+    private static final int MAX_BULK_LENGTH = 512 * 1024 * 1024;
+
+    private final CommandArgs args = new CommandArgs();
+    private final int initialCapacity;
+    private ByteBuffer buffer;
+    private int readIndex;
+
+    public RespParser() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public RespParser(int initialCapacity) {
+        this.initialCapacity = initialCapacity;
+        this.buffer = ByteBuffer.allocate(initialCapacity);
+    }
+
+    /**
+     * Returns the buffer positioned for appending input, compacting or doubling it first if it is full.
+     */
+    public ByteBuffer writableBuffer() {
+        if (!buffer.hasRemaining()) {
+            compact();
+            if (!buffer.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Performs a single read from {@code inputStream} into the buffer. Returns -1 at end of stream.
+     */
+    public int readFrom(InputStream inputStream) throws IOException {
+        ByteBuffer target = writableBuffer();
+        int read = inputStream.read(target.array(), target.arrayOffset() + target.position(), target.remaining());
+        if (read > 0) {
+            target.position(target.position() + read);
+        }
+        return read;
+    }
+
+    /**
+     * Returns true if unparsed bytes remain in the buffer.
+     */
+    public boolean hasBufferedInput() {
+        return readIndex < buffer.position();
+    }
+
+    /**
+     * Drops consumed frames from the front of the buffer. Invalidates previously returned arguments.
+     */
+    public void compact() {
+        if (readIndex > 0) {
+            buffer.flip();
+            buffer.position(readIndex);
+            buffer.compact();
+            readIndex = 0;
+        }
+        if (buffer.position() == 0 && buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            // Don't keep a huge buffer around after one large command
+            buffer = ByteBuffer.allocate(initialCapacity);
+        }
+    }
+
+    /**
+     * Parses the next complete command frame, or returns null if the buffer holds only part of one.
+     *
+     * @throws ProtocolException if the input is not a valid RESP command frame
+     */
+    public CommandArgs next() {
+        byte[] bytes = buffer.array();
+        int limit = buffer.position();
+        while (readIndex < limit) {
+            int position = readIndex;
+            if (bytes[position] != '*') {
+                throw new ProtocolException("Protocol error: expected '*', got '" + (char) bytes[position] + "'");
+            }
+            int lineEnd = lineEnd(bytes, position + 1, limit);
+            if (lineEnd < 0) {
+                return null;
+            }
+            int count = parseLength(bytes, position + 1, lineEnd);
+            position = lineEnd + 2;
+            if (count <= 0) {
+                // Empty and null arrays carry no command; skip them like Redis does
+                readIndex = position;
+                continue;
+            }
+            if (count > MAX_ARGUMENTS) {
+                throw new ProtocolException("Protocol error: invalid multibulk length");
+            }
+
+            args.reset(bytes);
+            for (int i = 0; i < count; i++) {
+                if (position >= limit) {
+                    return null;
+                }
+                if (bytes[position] != '$') {
+                    throw new ProtocolException("Protocol error: expected '$', got '" + (char) bytes[position] + "'");
+                }
+                lineEnd = lineEnd(bytes, position + 1, limit);
+                if (lineEnd < 0) {
+                    return null;
+                }
+                int length = parseLength(bytes, position + 1, lineEnd);
+                if (length < 0 || length > MAX_BULK_LENGTH) {
+                    throw new ProtocolException("Protocol error: invalid bulk length");
+                }
+                int dataStart = lineEnd + 2;
+                if ((long) dataStart + length + 2 > limit) {
+                    return null;
+                }
+                if (bytes[dataStart + length] != '\r' || bytes[dataStart + length + 1] != '\n') {
+                    throw new ProtocolException("Protocol error: invalid bulk string terminator");
+                }
+                args.add(dataStart, length);
+                position = dataStart + length + 2;
+            }
+            args.setFrameLength(position - readIndex);
+            readIndex = position;
+            return args;
+        }
+        return null;
+    }
+
+    private static int lineEnd(byte[] bytes, int from, int limit) {
+        for (int i = from; i < limit - 1; i++) {
+            if (bytes[i] == '\r') {
+                if (bytes[i + 1] != '\n') {
+                    throw new ProtocolException("Protocol error: expected '\\n' after '\\r'");
+                }
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int parseLength(byte[] bytes, int from, int to) {
+        if (from == to) {
+            throw new ProtocolException("Protocol error: empty length");
+        }
+        boolean negative = bytes[from] == '-';
+        long value = 0;
+        for (int i = negative ? from + 1 : from; i < to; i++) {
+            byte b = bytes[i];
+            if (b < '0' || b > '9' || value > Integer.MAX_VALUE) {
+                throw new ProtocolException("Protocol error: invalid length");
+            }
+            value = value * 10 + (b - '0');
+        }
+        if (value > Integer.MAX_VALUE) {
+            throw new ProtocolException("Protocol error: invalid length");
+        }
+        return (int) (negative ? -value : value);
+    }
+}
@@ -0,0 +1,92 @@
+package protocol.persistence;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link RDBInput} over a memory-mapped file.
+ * <p>
+ * A mapping can't be larger than 2 GiB, so a large file is mapped as several segments of {@link #SEGMENT_SIZE}
+ * bytes, every one but the last full, and the cursor moves from one to the next as it goes. Each cursor works on
+ * its own views of the segments, so several threads can decode different parts of one file at once.
+ */
+final class MappedRDBInput extends RDBInput {
+    static final int SEGMENT_SHIFT = 30;
+    static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+
+    private final ByteBuffer[] segments;
+    private final long limit;
+    private int index;
+    private ByteBuffer segment;
+
+    MappedRDBInput(ByteBuffer[] segments, long limit) {
+        this.segments = new ByteBuffer[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            this.segments[i] = segments[i].duplicate();
+        }
+        this.limit = limit;
+        this.segment = this.segments[0];
+    }
+
+    @Override
+    long position() {
+        return ((long) index << SEGMENT_SHIFT) + segment.position();
+    }
+
+    void seek(long position) {
+        index = (int) (position >>> SEGMENT_SHIFT);
+        if (index == segments.length) {
+            // The very end of a file whose last segment is full
+            index--;
+        }
+        segment = segments[index];
+        segment.position((int) (position - ((long) index << SEGMENT_SHIFT)));
+    }
+
+    boolean hasRemaining() {
+        return position() < limit;
+    }
+
+    long limit() {
+        return limit;
+    }
+
+    @Override
+    int readUnsignedByte() throws IOException {
+        if (!segment.hasRemaining()) {
+            nextSegment();
+        }
+        return segment.get() & 0xFF;
+    }
+
+    @Override
+    void readFully(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (!segment.hasRemaining()) {
+                nextSegment();
+            }
+            int chunk = Math.min(length, segment.remaining());
+            segment.get(bytes, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    @Override
+    void skip(long length) throws IOException {
+        long target = position() + length;
+        if (target > limit) {
+            throw new EOFException("Unexpected end of RDB data");
+        }
+        seek(target);
+    }
+
+    private void nextSegment() throws IOException {
+        if (index + 1 >= segments.length || position() >= limit) {
+            throw new EOFException("Unexpected end of RDB data");
+        }
+        segment = segments[++index];
+        segment.position(0);
+    }
+}
@@ -1,19 +1,166 @@
 package protocol.persistence;
 
-import config.ObjectFactory;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import storage.Snapshot;
 import storage.Storage;
+import storage.StorageEngine;
 
 public class PersistenceManager {
+    private static final Logger logger = Logger.getLogger(PersistenceManager.class.getName());
+
     private final RDBProcessor rdbProcessor;
     private final RDBLoader rdbLoader;
     private final Storage storage;
 
-    public PersistenceManager() {
-        this.storage = new Storage();
+    // SAVE and BGSAVE, at most one of them at a time
+    private final AtomicBoolean saveInProgress = new AtomicBoolean();
+    private volatile boolean backgroundSaveInProgress;
+    private volatile Snapshot currentSnapshot;
+    private volatile long lastSaveTime = System.currentTimeMillis();
+    private volatile boolean lastBackgroundSaveOk = true;
+    private volatile long lastBackgroundSaveMillis = -1;
+    private volatile long backgroundSaveStartedAt = -1;
+    private volatile long lastCopiedKeys;
+    private final AtomicLong saves = new AtomicLong();
+    private volatile RDBLoader.LoadStats lastLoad;
+    private volatile boolean loading;
+    private volatile long loadingStartedAt = -1;
+
+    public PersistenceManager(StorageEngine engine) {
+        this.storage = new Storage(engine);
         this.rdbProcessor = new RDBProcessor();
         this.rdbLoader = new RDBLoader();
     }
 
+    /**
+     * Loads the configured RDB file into the keyspace, if there is one.
+     */
+    public void load() throws IOException {
+        loadingStartedAt = System.currentTimeMillis();
+        loading = true;
+        try {
+            RDBLoader.LoadStats stats = rdbLoader.load(storage);
+            if (stats != null) {
+                storage.resetDirty();
+                lastLoad = stats;
+            }
+        } finally {
+            loading = false;
+        }
+    }
+
+    /**
+     * Loads the configured RDB file on a thread of its own, so the server can take connections meanwhile. The
+     * keyspace counts as {@link #isLoading() loading} from the moment this returns until the future completes.
+     */
+    public CompletableFuture<Void> loadInBackground() {
+        CompletableFuture<Void> loaded = new CompletableFuture<>();
+        loadingStartedAt = System.currentTimeMillis();
+        loading = true;
+        Thread.ofPlatform().name("rdb-loader").start(() -> {
+            try {
+                load();
+                loaded.complete(null);
+            } catch (IOException | RuntimeException e) {
+                loaded.completeExceptionally(e);
+            }
+        });
+        return loaded;
+    }
+
+    /**
+     * Whether the keyspace is being loaded, during which it must not be read or written.
+     */
+    public boolean isLoading() {
+        return loading;
+    }
+
+    /**
+     * Epoch milliseconds at which the load in progress, or the last one, started, -1 if none did.
+     */
+    public long getLoadingStartTime() {
+        return loadingStartedAt;
+    }
+
+    /**
+     * Estimated seconds until the load in progress is done, extrapolating from the bytes loaded so far; -1 if
+     * there is no load in progress, or nothing to go on yet.
+     */
+    public long getLoadingEtaSeconds() {
+        long loaded = rdbLoader.getLoadedBytes();
+        if (!loading || loaded == 0) {
+            return -1;
+        }
+        long elapsed = System.currentTimeMillis() - loadingStartedAt;
+        return elapsed * (rdbLoader.getTotalBytes() - loaded) / loaded / 1000;
+    }
+
+    /**
+     * Saves the keyspace on the calling thread.
+     *
+     * @throws IllegalStateException if a save is already in progress
+     */
+    public void save() {
+        if (!saveInProgress.compareAndSet(false, true)) {
+            throw new IllegalStateException("Background save already in progress");
+        }
+        try (Snapshot snapshot = storage.openSnapshot()) {
+            rdbProcessor.save(snapshot);
+            saved(snapshot);
+        } finally {
+            saveInProgress.set(false);
+        }
+    }
+
+    /**
+     * Takes a snapshot of the keyspace and saves it on a background thread, while writes go on. Returns false if
+     * a save is already in progress.
+     */
+    public boolean backgroundSave() {
+        if (!saveInProgress.compareAndSet(false, true)) {
+            return false;
+        }
+        Snapshot snapshot;
+        try {
+            snapshot = storage.openSnapshot();
+        } catch (RuntimeException e) {
+            saveInProgress.set(false);
+            throw e;
+        }
+        currentSnapshot = snapshot;
+        backgroundSaveStartedAt = System.currentTimeMillis();
+        backgroundSaveInProgress = true;
+        Thread.ofPlatform().name("bgsave").start(() -> {
+            try (snapshot) {
+                rdbProcessor.save(snapshot);
+                saved(snapshot);
+                lastBackgroundSaveOk = true;
+                logger.info("Background saving terminated with success");
+            } catch (RuntimeException e) {
+                lastBackgroundSaveOk = false;
+                logger.severe("Background saving failed: " + e.getMessage());
+            } finally {
+                lastBackgroundSaveMillis = System.currentTimeMillis() - backgroundSaveStartedAt;
+                lastCopiedKeys = snapshot.getCopiedKeys();
+                currentSnapshot = null;
+                backgroundSaveInProgress = false;
+                saveInProgress.set(false);
+            }
+        });
+        return true;
+    }
+
+    private void saved(Snapshot snapshot) {
+        storage.saved(snapshot);
+        lastSaveTime = snapshot.getTakenAt();
+        saves.incrementAndGet();
+    }
+
     public RDBProcessor getRdbProcessor() {
         return rdbProcessor;
     }
@@ -25,4 +172,52 @@ public class PersistenceManager {
     public Storage getStorage() {
         return storage;
     }
+
+    public boolean isBackgroundSaveInProgress() {
+        return backgroundSaveInProgress;
+    }
+
+    /**
+     * Epoch milliseconds of the snapshot last saved successfully, or of startup if none was.
+     */
+    public long getLastSaveTime() {
+        return lastSaveTime;
+    }
+
+    public boolean isLastBackgroundSaveOk() {
+        return lastBackgroundSaveOk;
+    }
+
+    /**
+     * Duration of the last background save in milliseconds, -1 if there was none.
+     */
+    public long getLastBackgroundSaveMillis() {
+        return lastBackgroundSaveMillis;
+    }
+
+    /**
+     * Time spent so far by the background save in progress in milliseconds, -1 if there is none.
+     */
+    public long getCurrentBackgroundSaveMillis() {
+        return backgroundSaveInProgress ? System.currentTimeMillis() - backgroundSaveStartedAt : -1;
+    }
+
+    /**
+     * Keys copied on write by the background save in progress, or by the last one.
+     */
+    public long getCopiedKeys() {
+        Snapshot snapshot = currentSnapshot;
+        return snapshot != null ? snapshot.getCopiedKeys() : lastCopiedKeys;
+    }
+
+    public long getSaves() {
+        return saves.get();
+    }
+
+    /**
+     * What loading the RDB file at startup did, or null if there was no file.
+     */
+    public RDBLoader.LoadStats getLastLoad() {
+        return lastLoad;
+    }
 }
@@ -0,0 +1,145 @@
+package protocol.persistence;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import util.LZF;
+
+/**
+ * A cursor over the bytes of an RDB file with the decoding of its length and string encodings, integer and LZF
+ * ones included. Where the bytes come from is up to the subclass: a {@link MappedRDBInput mapped file} that can
+ * be decoded from several places at once, or a {@link StreamRDBInput stream} read through once.
+ */
+abstract class RDBInput {
+    private byte[] compressed = new byte[0];
+
+    /**
+     * Number of bytes from the start of the file to the next one to be read.
+     */
+    abstract long position();
+
+    abstract int readUnsignedByte() throws IOException;
+
+    abstract void readFully(byte[] bytes, int offset, int length) throws IOException;
+
+    abstract void skip(long length) throws IOException;
+
+    int readIntLittleEndian() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value |= readUnsignedByte() << (8 * i);
+        }
+        return value;
+    }
+
+    long readLongLittleEndian() throws IOException {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value |= (long) readUnsignedByte() << (8 * i);
+        }
+        return value;
+    }
+
+    /**
+     * Reads a length: 6 bits, 14 bits, or a big-endian 32 or 64-bit number after a marker byte.
+     */
+    long readLength() throws IOException {
+        int first = readUnsignedByte();
+        long length = readLength(first);
+        if (length < 0) {
+            throw new IOException("Unexpected string encoding where a length was expected: " + first);
+        }
+        return length;
+    }
+
+    /**
+     * Decodes the length that starts with {@code first}, or returns -1 if {@code first} marks a special string
+     * encoding instead.
+     */
+    private long readLength(int first) throws IOException {
+        switch (first >>> 6) {
+            case 0:
+                return first & 0x3F;
+            case 1:
+                return ((first & 0x3F) << 8) | readUnsignedByte();
+            case 2:
+                if (first == 0x80) {
+                    return Integer.toUnsignedLong(readIntBigEndian());
+                } else if (first == 0x81) {
+                    return ((long) readIntBigEndian() << 32) | Integer.toUnsignedLong(readIntBigEndian());
+                }
+                throw new IOException("Unknown length encoding: " + first);
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Reads a string, decoding the integer encodings to their decimal form.
+     */
+    byte[] readString() throws IOException {
+        int first = readUnsignedByte();
+        long length = readLength(first);
+        if (length >= 0) {
+            byte[] bytes = new byte[Math.toIntExact(length)];
+            readFully(bytes, 0, bytes.length);
+            return bytes;
+        }
+        return switch (first & 0x3F) {
+            case 0 -> Long.toString((byte) readUnsignedByte()).getBytes(StandardCharsets.US_ASCII);
+            case 1 -> Long.toString((short) (readUnsignedByte() | readUnsignedByte() << 8))
+                    .getBytes(StandardCharsets.US_ASCII);
+            case 2 -> Long.toString(readIntLittleEndian()).getBytes(StandardCharsets.US_ASCII);
+            case 3 -> readCompressedString();
+            default -> throw new IOException("Unsupported string encoding: " + first);
+        };
+    }
+
+    private byte[] readCompressedString() throws IOException {
+        int compressedLength = Math.toIntExact(readLength());
+        byte[] bytes = new byte[Math.toIntExact(readLength())];
+        if (compressed.length < compressedLength) {
+            compressed = new byte[compressedLength];
+        }
+        readFully(compressed, 0, compressedLength);
+        try {
+            if (LZF.decompress(compressed, 0, compressedLength, bytes, 0, bytes.length) != bytes.length) {
+                throw new IOException("LZF string shorter than its stated length");
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        return bytes;
+    }
+
+    /**
+     * Moves past a string without decoding it.
+     */
+    void skipString() throws IOException {
+        int first = readUnsignedByte();
+        long length = readLength(first);
+        if (length >= 0) {
+            skip(length);
+            return;
+        }
+        switch (first & 0x3F) {
+            case 0 -> skip(1);
+            case 1 -> skip(2);
+            case 2 -> skip(4);
+            case 3 -> {
+                long compressedLength = readLength();
+                readLength();
+                skip(compressedLength);
+            }
+            default -> throw new IOException("Unsupported string encoding: " + first);
+        }
+    }
+
+    private int readIntBigEndian() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | readUnsignedByte();
+        }
+        return value;
+    }
+}
@@ -1,165 +1,375 @@
 package protocol.persistence;
 
-import java.io.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.time.Instant;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Logger;
 
-
 import config.ObjectFactory;
-import org.apache.commons.lang3.tuple.Pair;
 import protocol.ValueType;
+import storage.Key;
+import storage.Storage;
 import storage.StorageRecord;
+import util.Clock;
 
+/**
+ * Loads RDB files straight into a {@link Storage}.
+ * <p>
+ * The file is memory-mapped rather than read through a stream. A first pass only walks the entries, skipping over
+ * keys and values by their lengths, to cut the file into ranges of about {@link #RANGE_SIZE} bytes that each start
+ * on an entry; the ranges are then decoded in parallel on the common {@link java.util.concurrent.ForkJoinPool},
+ * every task putting its keys into the keyspace as it goes. Keys that have already expired are skipped.
+ * <p>
+ * An RDB payload received in a full resync is instead decoded as it comes off the socket, so it is never held in
+ * memory whole. Either way the keys go into a new {@link Storage.Dataset} while the current one keeps serving, and
+ * the new one is swapped in once the load has succeeded.
+ * <p>
+ * The progress of the load in progress, or of the last one, is tracked by the bytes of the ranges decoded so far.
+ */
 public class RDBLoader {
     private static final Logger LOGGER = Logger.getLogger(RDBLoader.class.getName());
 
+    // Value Types
+    private static final int RDB_TYPE_STRING = 0;
 
     // Special Opcodes
-    private static final byte RDB_OPCODE_AUX = (byte) 0xFA;
-    private static final byte RDB_OPCODE_RESIZEDB = (byte) 0xFB;
-    private static final byte RDB_OPCODE_EXPIRETIME_MS = (byte) 0xFC;
-    private static final byte RDB_OPCODE_EXPIRETIME = (byte) 0xFD;
-    private static final byte RDB_OPCODE_SELECTDB = (byte) 0xFE;
-    private static final byte RDB_OPCODE_EOF = (byte) 0xFF;
+    private static final int RDB_OPCODE_IDLE = 0xF8;
+    private static final int RDB_OPCODE_FREQ = 0xF9;
+    private static final int RDB_OPCODE_AUX = 0xFA;
+    private static final int RDB_OPCODE_RESIZEDB = 0xFB;
+    private static final int RDB_OPCODE_EXPIRETIME_MS = 0xFC;
+    private static final int RDB_OPCODE_EXPIRETIME = 0xFD;
+    private static final int RDB_OPCODE_SELECTDB = 0xFE;
+    private static final int RDB_OPCODE_EOF = 0xFF;
 
+    /**
+     * Bytes a stream given to {@link #load(PushbackInputStream, byte[], Storage)} must be able to take back.
+     */
+    public static final int STREAM_BUFFER_SIZE = StreamRDBInput.BUFFER_SIZE;
 
-    public Map<String, StorageRecord> readAllPairs() throws IOException {
-        String fullFilename = String.format("%s/%s",
-                ObjectFactory.getInstance().getProperties().getDir(),
-                ObjectFactory.getInstance().getProperties().getDbFileName());
+    private static final byte[] MAGIC = "REDIS".getBytes(StandardCharsets.US_ASCII);
+    private static final int CHECKSUM_LENGTH = 8;
+    // Big enough for a task to outweigh its scheduling, small enough to spread a file of a few hundred MB
+    private static final long RANGE_SIZE = 4 * 1024 * 1024;
 
-        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(fullFilename))) {
-            return readAllPairsFromStream(inputStream);
-        } catch (FileNotFoundException e) {
-            LOGGER.info("RDB file is not present");
-            return Map.of();
+    private volatile long totalBytes;
+    private final LongAdder loadedBytes = new LongAdder();
+
+    /**
+     * What a load did: keys put into the keyspace, keys skipped as already expired, bytes read and time taken.
+     */
+    public record LoadStats(long keys, long expiredKeys, long bytes, long nanos) {
+        public long millis() {
+            return nanos / 1_000_000;
+        }
+
+        public double keysPerSecond() {
+            return nanos == 0 ? 0 : keys * 1e9 / nanos;
+        }
+
+        public double megabytesPerSecond() {
+            return nanos == 0 ? 0 : bytes * 1e9 / nanos / (1024 * 1024);
         }
     }
 
-    public Map<String, StorageRecord> readAllPairsFromStream(DataInputStream inputStream) throws IOException {
-        // Skip magic and version
-        skipMagicAndVersion(inputStream);
+    /**
+     * Loads the configured file into {@code storage}. Returns null if there is no such file.
+     */
+    public LoadStats load(Storage storage) throws IOException {
+        Path file = Path.of(ObjectFactory.getInstance().getProperties().getDir(),
+                ObjectFactory.getInstance().getProperties().getDbFileName());
+        if (!Files.exists(file)) {
+            LOGGER.info("RDB file is not present");
+            return null;
+        }
+        return load(file, storage);
+    }
 
-        // Skip to RESIZEDB
-        byte b = inputStream.readByte();
-        while ((b & RDB_OPCODE_RESIZEDB) != RDB_OPCODE_RESIZEDB) {
-            b = inputStream.readByte();
+    public LoadStats load(Path file, Storage storage) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int count = (int) Math.max(1,
+                    (size + MappedRDBInput.SEGMENT_SIZE - 1) / MappedRDBInput.SEGMENT_SIZE);
+            ByteBuffer[] segments = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long offset = i * MappedRDBInput.SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                        Math.min(MappedRDBInput.SEGMENT_SIZE, size - offset));
+            }
+            // The mappings stay valid once the channel is closed
+            LoadStats stats = load(segments, size, storage);
+            LOGGER.info(String.format("Loaded %d keys (%d expired skipped) from %s in %d ms: %.0f keys/s, %.1f MB/s",
+                    stats.keys(), stats.expiredKeys(), file, stats.millis(), stats.keysPerSecond(),
+                    stats.megabytesPerSecond()));
+            return stats;
         }
+    }
+
+    /**
+     * Loads an RDB payload of {@code size} bytes as it is read from {@code inputStream}, as received in a full
+     * resync, reading nothing past it.
+     */
+    public LoadStats load(InputStream inputStream, long size, Storage storage) throws IOException {
+        return load(new StreamRDBInput(inputStream, size), size, null, storage);
+    }
 
-        // Read hash table sizes
-        readLengthEncodedInt(inputStream); // db size
-        readLengthEncodedInt(inputStream); // expiry size
+    /**
+     * Loads an RDB payload of unknown length as it is read from {@code inputStream}, as sent in a diskless full
+     * resync, checking that {@code eofMark} follows it. Whatever was read past the mark is pushed back onto the
+     * stream, which must be able to take back {@link #STREAM_BUFFER_SIZE} bytes.
+     */
+    public LoadStats load(PushbackInputStream inputStream, byte[] eofMark, Storage storage) throws IOException {
+        StreamRDBInput input = new StreamRDBInput(inputStream, Long.MAX_VALUE);
+        LoadStats stats = load(input, 0, eofMark, storage);
+        input.unread(inputStream);
+        return stats;
+    }
 
-        // Read key-value pairs
-        Map<String, StorageRecord> result = new HashMap<>();
+    /**
+     * Decodes the payload sequentially into a new dataset and swaps it in. Without an {@code eofMark} the payload
+     * is {@code size} bytes long, otherwise its size is unknown until the mark is found after the checksum.
+     */
+    private LoadStats load(StreamRDBInput input, long size, byte[] eofMark, Storage storage) throws IOException {
+        long started = System.nanoTime();
+        loadedBytes.reset();
+        totalBytes = size;
+        Storage.Dataset dataset = storage.newDataset();
         try {
+            readHeader(input);
+            long now = Clock.currentMillis();
+            long keys = 0;
+            long expiredKeys = 0;
+            long reported = input.position();
             while (true) {
-                Pair<String, StorageRecord> keyValuePair = readKeyValuePair(inputStream);
-                if (keyValuePair == null) {
+                int opcode = input.readUnsignedByte();
+                if (opcode == RDB_OPCODE_EOF) {
+                    break;
+                }
+                if (skipDatabaseOpcode(input, opcode)) {
                     continue;
                 }
-                result.put(keyValuePair.getKey(), keyValuePair.getValue());
+                if (decodeKey(input, opcode, dataset, storage, now)) {
+                    keys++;
+                } else {
+                    expiredKeys++;
+                }
+                loadedBytes.add(input.position() - reported);
+                reported = input.position();
             }
-        } catch (EOFException e) {
-            LOGGER.info("End of RDB file reached");
+            if (eofMark == null) {
+                // Checksum
+                input.skipToLimit();
+            } else {
+                input.skip(CHECKSUM_LENGTH);
+                size = input.position();
+                byte[] mark = new byte[eofMark.length];
+                input.readFully(mark, 0, mark.length);
+                if (!Arrays.equals(mark, eofMark)) {
+                    throw new IOException("RDB payload not followed by its EOF mark");
+                }
+                totalBytes = size;
+            }
+            loadedBytes.add(size - loadedBytes.sum());
+            storage.swap(dataset);
+            return new LoadStats(keys, expiredKeys, size, System.nanoTime() - started);
+        } catch (IOException | RuntimeException e) {
+            storage.discard(dataset);
+            throw e;
         }
-        return result;
     }
 
-    private void skipMagicAndVersion(DataInputStream inputStream) throws IOException {
-        byte[] magic = new byte[5];
-        inputStream.readFully(magic);
-        byte[] version = new byte[4];
-        inputStream.readFully(version);
+    private LoadStats load(ByteBuffer[] segments, long size, Storage storage) throws IOException {
+        long started = System.nanoTime();
+        loadedBytes.reset();
+        totalBytes = size;
+        MappedRDBInput input = new MappedRDBInput(segments, size);
+        readHeader(input);
+        List<long[]> ranges = split(input);
+
+        long now = Clock.currentMillis();
+        LongAdder keys = new LongAdder();
+        LongAdder expiredKeys = new LongAdder();
+        Storage.Dataset dataset = storage.newDataset();
+        List<ForkJoinTask<Void>> tasks = new ArrayList<>(ranges.size());
+        for (long[] range : ranges) {
+            tasks.add(ForkJoinTask.adapt(() -> {
+                decode(new MappedRDBInput(segments, size), range[0], range[1], dataset, storage, now, keys,
+                        expiredKeys);
+                return null;
+            }));
+        }
+        try {
+            ForkJoinTask.invokeAll(tasks);
+        } catch (RuntimeException e) {
+            storage.discard(dataset);
+            // Checked exceptions of the tasks come back wrapped
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+        storage.swap(dataset);
+        // Header and trailer
+        loadedBytes.add(size - loadedBytes.sum());
+        return new LoadStats(keys.sum(), expiredKeys.sum(), size, System.nanoTime() - started);
     }
 
-    private Pair<String, StorageRecord> readKeyValuePair(DataInputStream inputStream) throws IOException {
-        byte first = inputStream.readByte();
-        Instant expiry = Instant.MAX;
-        byte valueTypeByte;
+    /**
+     * Size of the file being loaded, or of the last one loaded.
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Bytes of the file being loaded that have been decoded so far.
+     */
+    public long getLoadedBytes() {
+        return loadedBytes.sum();
+    }
 
-        if ((first & RDB_OPCODE_EXPIRETIME) == RDB_OPCODE_EXPIRETIME) {
-            int seconds = 0;
-            for (int i = 0; i < 4; i++) {
-                seconds += ((inputStream.readByte() & 0xFF) << 8 * i);
+    private void readHeader(RDBInput input) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        input.readFully(magic, 0, magic.length);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not an RDB file");
+        }
+        // Version, four ASCII digits
+        input.skip(4);
+    }
+
+    /**
+     * Walks the entries from the current position to the EOF opcode and cuts them into ranges of start and end
+     * positions, each starting on an entry.
+     */
+    private List<long[]> split(MappedRDBInput input) throws IOException {
+        List<long[]> ranges = new ArrayList<>();
+        long rangeStart = input.position();
+        while (true) {
+            long entryStart = input.position();
+            int opcode = input.readUnsignedByte();
+            if (opcode == RDB_OPCODE_EOF) {
+                if (entryStart > rangeStart) {
+                    ranges.add(new long[]{rangeStart, entryStart});
+                }
+                return ranges;
             }
-            expiry = Instant.ofEpochSecond(seconds);
-            valueTypeByte = inputStream.readByte();
-        } else if ((first & RDB_OPCODE_EXPIRETIME_MS) == RDB_OPCODE_EXPIRETIME_MS) {
-            long millis = 0;
-            for (int i = 0; i < 8; i++) {
-                millis += ((long) (inputStream.readByte() & 0xFF) << 8 * i);
+            if (entryStart - rangeStart >= RANGE_SIZE) {
+                ranges.add(new long[]{rangeStart, entryStart});
+                rangeStart = entryStart;
+            }
+            if (!skipDatabaseOpcode(input, opcode)) {
+                while (isKeyMetadata(opcode)) {
+                    skipKeyMetadata(input, opcode);
+                    opcode = input.readUnsignedByte();
+                }
+                checkType(opcode);
+                input.skipString();
+                input.skipString();
             }
-            expiry = Instant.ofEpochMilli(millis);
-            valueTypeByte = inputStream.readByte();
-        } else if ((first & RDB_OPCODE_EOF) == RDB_OPCODE_EOF) {
-            throw new EOFException();
-        } else {
-            valueTypeByte = first;
-        }
-
-        byte[] key = readEncodedString(inputStream);
-        byte[] value;
-        ValueType valueType;
-
-        if (valueTypeByte == 0) {
-            valueType = ValueType.STRING;
-            value = readEncodedString(inputStream);
-        } else if ((valueTypeByte & 0xFF) == 0xFF) {
-            throw new EOFException();
-        } else {
-            LOGGER.info("Value type is not implemented: " + valueTypeByte);
-            return null;
         }
+    }
 
-        return Pair.of(new String(key),
-                new StorageRecord(valueType, value, expiry));
+    private void decode(MappedRDBInput input, long start, long end, Storage.Dataset dataset, Storage storage,
+                        long now, LongAdder keys, LongAdder expiredKeys) throws IOException {
+        input.seek(start);
+        long loaded = 0;
+        long expired = 0;
+        while (input.position() < end) {
+            int opcode = input.readUnsignedByte();
+            if (skipDatabaseOpcode(input, opcode)) {
+                continue;
+            }
+            if (decodeKey(input, opcode, dataset, storage, now)) {
+                loaded++;
+            } else {
+                expired++;
+            }
+        }
+        keys.add(loaded);
+        expiredKeys.add(expired);
+        loadedBytes.add(end - start);
     }
 
-    private int readLengthEncodedInt(DataInputStream inputStream) throws IOException {
-        final byte TWO_LEFTMOST_BITS = (byte) 0b1100_0000;
-        byte first = inputStream.readByte();
+    /**
+     * Decodes the key entry that starts with {@code opcode} into {@code dataset}. Returns false if the key was
+     * skipped as already expired.
+     */
+    private boolean decodeKey(RDBInput input, int opcode, Storage.Dataset dataset, Storage storage, long now)
+            throws IOException {
+        long expiresAt = StorageRecord.NO_EXPIRY;
+        while (isKeyMetadata(opcode)) {
+            if (opcode == RDB_OPCODE_EXPIRETIME) {
+                expiresAt = Integer.toUnsignedLong(input.readIntLittleEndian()) * 1000L;
+            } else if (opcode == RDB_OPCODE_EXPIRETIME_MS) {
+                expiresAt = input.readLongLittleEndian();
+            } else {
+                skipKeyMetadata(input, opcode);
+            }
+            opcode = input.readUnsignedByte();
+        }
+        checkType(opcode);
+        byte[] key = input.readString();
+        byte[] value = input.readString();
+        if (expiresAt != StorageRecord.NO_EXPIRY && expiresAt <= now) {
+            return false;
+        }
+        storage.load(dataset, new Key(key), value, ValueType.STRING, expiresAt);
+        return true;
+    }
 
-        if ((first & TWO_LEFTMOST_BITS) == 0b0000_0000) {
-            return first;
-        } else if ((first & TWO_LEFTMOST_BITS) == 0b0100_0000) {
-            byte second = inputStream.readByte();
-            return ((first & 0b0011_1111) << 8) + (second & 0xFF);
-        } else if ((first & 0b1000_0000) > 0) {
-            int result = 0;
-            for (int i = 0; i < 4; i++) {
-                result = (result << 8) + (inputStream.readByte() & 0xFF);
+    /**
+     * Moves past an entry that isn't a key, returning false if {@code opcode} starts a key instead.
+     */
+    private boolean skipDatabaseOpcode(RDBInput input, int opcode) throws IOException {
+        switch (opcode) {
+            case RDB_OPCODE_AUX -> {
+                input.skipString();
+                input.skipString();
             }
-            return result;
-        } else if ((first & TWO_LEFTMOST_BITS) == TWO_LEFTMOST_BITS) {
-            if ((first & 0b0011_1111) == 0) {
-                return inputStream.readByte();
-            } else if ((first & 0b0011_1111) == 1) {
-                int result = 0;
-                for (int i = 0; i < 2; i++) {
-                    result = (result << 8) + (inputStream.readByte() & 0xFF);
-                }
-                return result;
-            } else if ((first & 0b0011_1111) == 2) {
-                int result = 0;
-                for (int i = 0; i < 4; i++) {
-                    result = (result << 8) + (inputStream.readByte() & 0xFF);
-                }
-                return result;
+            case RDB_OPCODE_SELECTDB -> input.readLength();
+            case RDB_OPCODE_RESIZEDB -> {
+                input.readLength();
+                input.readLength();
             }
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isKeyMetadata(int opcode) {
+        return opcode == RDB_OPCODE_EXPIRETIME || opcode == RDB_OPCODE_EXPIRETIME_MS
+                || opcode == RDB_OPCODE_IDLE || opcode == RDB_OPCODE_FREQ;
+    }
+
+    /**
+     * Moves past one item of the expiry and eviction data in front of a key.
+     */
+    private void skipKeyMetadata(RDBInput input, int opcode) throws IOException {
+        switch (opcode) {
+            case RDB_OPCODE_EXPIRETIME -> input.skip(4);
+            case RDB_OPCODE_EXPIRETIME_MS -> input.skip(8);
+            case RDB_OPCODE_IDLE -> input.readLength();
+            default -> input.skip(1);
         }
-        throw new RuntimeException("Unexpected bits: " + first);
     }
 
-    private byte[] readEncodedString(DataInputStream inputStream) throws IOException {
-        int stringSize = readLengthEncodedInt(inputStream);
-        ByteArrayOutputStream buf = new ByteArrayOutputStream(stringSize);
-        for (int i = 0; i < stringSize; i++) {
-            buf.write(inputStream.readByte());
+    private static void checkType(int type) throws IOException {
+        if (type != RDB_TYPE_STRING) {
+            throw new IOException("Value type is not implemented: " + type);
         }
-        return buf.toByteArray();
     }
-}
\ No newline at end of file
+}
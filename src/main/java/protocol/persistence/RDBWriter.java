@@ -0,0 +1,272 @@
+package protocol.persistence;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import storage.Key;
+import storage.Snapshot;
+import storage.StorageRecord;
+import util.CRC64;
+import util.LZF;
+
+/**
+ * Encodes a {@link Snapshot} as an RDB file and streams it to a channel.
+ * <p>
+ * Entries are encoded into a direct buffer that is written out whenever it fills up, so memory use stays at the
+ * size of the buffer whatever the size of the keyspace. The CRC64 trailer is computed on each chunk as it is
+ * flushed instead of over the whole file at the end.
+ * <p>
+ * Strings are written the way Redis does: as integers when they are the canonical form of one that fits in
+ * 32 bits, LZF-compressed when compression is on, they are longer than the minimum length and compressing saves
+ * more than four bytes, and raw otherwise.
+ */
+public class RDBWriter {
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    public static final int DEFAULT_COMPRESSION_MIN_LENGTH = 20;
+
+    private static final String REDIS_VERSION = "0011";
+
+    // Value Types
+    private static final byte RDB_TYPE_STRING = 0;
+
+    // String Encoding Types
+    private static final int RDB_ENC_INT8 = 0xC0;
+    private static final int RDB_ENC_INT16 = 0xC1;
+    private static final int RDB_ENC_INT32 = 0xC2;
+    private static final int RDB_ENC_LZF = 0xC3;
+    // The longest decimal form of a 32-bit integer
+    private static final int MAX_INT_STRING_LENGTH = 11;
+
+    // Special Opcodes
+    private static final byte RDB_OPCODE_EOF = (byte) 0xFF;
+    private static final byte RDB_OPCODE_SELECTDB = (byte) 0xFE;
+    private static final byte RDB_OPCODE_EXPIRETIME_MS = (byte) 0xFC;
+    private static final byte RDB_OPCODE_RESIZEDB = (byte) 0xFB;
+    private static final byte RDB_OPCODE_AUX = (byte) 0xFA;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final CRC64 crc = new CRC64();
+    private final LZF lzf;
+    private final int compressionMinLength;
+    private byte[] compressed = new byte[0];
+    private long bytesWritten;
+
+    public RDBWriter(WritableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE, true, DEFAULT_COMPRESSION_MIN_LENGTH);
+    }
+
+    /**
+     * @param compression          whether to LZF-compress strings
+     * @param compressionMinLength strings up to this length are never compressed
+     */
+    public RDBWriter(WritableByteChannel channel, int bufferSize, boolean compression, int compressionMinLength) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        this.lzf = compression ? new LZF() : null;
+        this.compressionMinLength = Math.max(compressionMinLength, 4);
+    }
+
+    /**
+     * Writes the whole file for {@code snapshot}, checksum included, and returns its size in bytes. The channel is
+     * left open.
+     */
+    public long write(Snapshot snapshot) throws IOException {
+        writeHeader(snapshot.getKeyCount(), snapshot.getExpiringKeyCount());
+        try {
+            snapshot.forEach((key, record) -> {
+                try {
+                    writeEntry(key, record);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writeTrailer();
+        return bytesWritten;
+    }
+
+    private void writeHeader(long keyCount, long expiringKeyCount) throws IOException {
+        // Magic string and version
+        writeRaw("REDIS".getBytes(StandardCharsets.US_ASCII));
+        writeRaw(REDIS_VERSION.getBytes(StandardCharsets.US_ASCII));
+
+        writeAuxField("redis-ver", "7.2.0");
+        writeAuxField("redis-bits", "64");
+
+        putByte(RDB_OPCODE_SELECTDB);
+        writeLength(0);
+
+        // The sizes are only hints for the loader
+        putByte(RDB_OPCODE_RESIZEDB);
+        writeLength(Math.toIntExact(keyCount));
+        writeLength(Math.toIntExact(expiringKeyCount));
+    }
+
+    private void writeEntry(Key key, StorageRecord record) throws IOException {
+        if (record.hasExpiry()) {
+            ensure(9);
+            buffer.put(RDB_OPCODE_EXPIRETIME_MS);
+            buffer.putLong(record.expiresAt());
+        }
+        putByte(RDB_TYPE_STRING);
+        writeString(key.bytes());
+        writeString(record.data());
+    }
+
+    private void writeTrailer() throws IOException {
+        putByte(RDB_OPCODE_EOF);
+        // The checksum covers everything before it, so it goes out after the last checksummed flush
+        flush();
+        buffer.putLong(crc.getValue());
+        flush();
+    }
+
+    private void writeAuxField(String key, String value) throws IOException {
+        putByte(RDB_OPCODE_AUX);
+        writeString(key.getBytes(StandardCharsets.UTF_8));
+        writeString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        writeLength(bytes.length);
+        put(bytes, 0, bytes.length);
+    }
+
+    private void writeString(byte[] bytes) throws IOException {
+        if (bytes.length <= MAX_INT_STRING_LENGTH && writeInteger(bytes)) {
+            return;
+        }
+        if (lzf != null && bytes.length > compressionMinLength && writeCompressed(bytes)) {
+            return;
+        }
+        writeBytes(bytes);
+    }
+
+    /**
+     * Writes {@code bytes} in an integer encoding if they are the canonical decimal form of a 32-bit integer, so
+     * that they read back exactly: no sign on zero, no leading zeros or plus sign.
+     */
+    private boolean writeInteger(byte[] bytes) throws IOException {
+        if (bytes.length == 0) {
+            return false;
+        }
+        boolean negative = bytes[0] == '-';
+        int start = negative ? 1 : 0;
+        // Nothing after the sign, or a leading zero in anything but "0" itself
+        if (start == bytes.length || (bytes[start] == '0' && bytes.length > 1)) {
+            return false;
+        }
+        long value = 0;
+        for (int i = start; i < bytes.length; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9') {
+                return false;
+            }
+            value = value * 10 + (bytes[i] - '0');
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return false;
+        }
+        ensure(5);
+        if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            buffer.put((byte) RDB_ENC_INT8);
+            buffer.put((byte) value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            buffer.put((byte) RDB_ENC_INT16);
+            buffer.putShort((short) value);
+        } else {
+            buffer.put((byte) RDB_ENC_INT32);
+            buffer.putInt((int) value);
+        }
+        return true;
+    }
+
+    /**
+     * Writes {@code bytes} LZF-compressed, unless that saves four bytes or less.
+     */
+    private boolean writeCompressed(byte[] bytes) throws IOException {
+        int limit = bytes.length - 4;
+        if (compressed.length < limit) {
+            compressed = new byte[limit];
+        }
+        int length = lzf.compress(bytes, 0, bytes.length, compressed, 0, limit);
+        if (length == 0) {
+            return false;
+        }
+        putByte((byte) RDB_ENC_LZF);
+        writeLength(length);
+        writeLength(bytes.length);
+        put(compressed, 0, length);
+        return true;
+    }
+
+    private void writeLength(int length) throws IOException {
+        ensure(5);
+        if (length < (1 << 6)) {
+            // 6-bit encoding (00XXXXXX)
+            buffer.put((byte) length);
+        } else if (length < (1 << 14)) {
+            // 14-bit encoding (01XXXXXX YYYYYYYY)
+            buffer.put((byte) (((length >> 8) & 0x3F) | 0x40));
+            buffer.put((byte) length);
+        } else {
+            // 32-bit encoding (10000000 XXXXXXXX YYYYYYYY ZZZZZZZZ WWWWWWWW), big-endian unlike the rest
+            buffer.put((byte) 0x80);
+            buffer.put((byte) (length >>> 24));
+            buffer.put((byte) (length >>> 16));
+            buffer.put((byte) (length >>> 8));
+            buffer.put((byte) length);
+        }
+    }
+
+    private void putByte(byte b) throws IOException {
+        ensure(1);
+        buffer.put(b);
+    }
+
+    private void writeRaw(byte[] bytes) throws IOException {
+        put(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Copies {@code length} bytes into the buffer, flushing as often as needed for values larger than it.
+     */
+    private void put(byte[] bytes, int offset, int length) throws IOException {
+        int end = offset + length;
+        while (offset < end) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int chunk = Math.min(buffer.remaining(), end - offset);
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+        }
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Checksums what the buffer holds and writes it to the channel.
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        crc.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,100 @@
+package protocol.persistence;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+
+/**
+ * An {@link RDBInput} read through once from a stream, as an RDB file comes off the master's socket in a full
+ * resync.
+ * <p>
+ * It never reads past the {@code limit} it is given, the length the payload was announced with, since whatever
+ * follows on the stream is not part of the file. A payload of unknown length, framed by an end mark instead, is read
+ * with no limit, and what was read past its end is {@link #unread pushed back} onto the stream afterwards.
+ */
+final class StreamRDBInput extends RDBInput {
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream inputStream;
+    private final long limit;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferPosition;
+    private int bufferLimit;
+    // Stream position of the start of the buffer
+    private long bufferStart;
+
+    StreamRDBInput(InputStream inputStream, long limit) {
+        this.inputStream = inputStream;
+        this.limit = limit;
+    }
+
+    @Override
+    long position() {
+        return bufferStart + bufferPosition;
+    }
+
+    @Override
+    int readUnsignedByte() throws IOException {
+        if (bufferPosition == bufferLimit) {
+            fill();
+        }
+        return buffer[bufferPosition++] & 0xFF;
+    }
+
+    @Override
+    void readFully(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (bufferPosition == bufferLimit) {
+                fill();
+            }
+            int chunk = Math.min(length, bufferLimit - bufferPosition);
+            System.arraycopy(buffer, bufferPosition, bytes, offset, chunk);
+            bufferPosition += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    @Override
+    void skip(long length) throws IOException {
+        while (length > 0) {
+            if (bufferPosition == bufferLimit) {
+                fill();
+            }
+            int chunk = (int) Math.min(length, bufferLimit - bufferPosition);
+            bufferPosition += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Pushes what has been read from the stream but not consumed back onto it.
+     */
+    void unread(PushbackInputStream pushbackInputStream) throws IOException {
+        pushbackInputStream.unread(buffer, bufferPosition, bufferLimit - bufferPosition);
+        bufferLimit = bufferPosition;
+    }
+
+    /**
+     * Moves past whatever is left of the payload, such as the checksum after the EOF opcode.
+     */
+    void skipToLimit() throws IOException {
+        skip(limit - position());
+    }
+
+    private void fill() throws IOException {
+        bufferStart += bufferLimit;
+        bufferPosition = 0;
+        bufferLimit = 0;
+        long remaining = limit - bufferStart;
+        if (remaining <= 0) {
+            throw new EOFException("Unexpected end of RDB data");
+        }
+        int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (read < 0) {
+            throw new EOFException("Connection closed in the middle of the RDB data");
+        }
+        bufferLimit = read;
+    }
+}
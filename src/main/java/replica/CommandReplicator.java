@@ -1,36 +1,348 @@
 package replica;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongFunction;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import config.ApplicationProperties;
 import config.ObjectFactory;
-import replica.ReplicaClient;
+import config.OutputBufferLimit;
+import protocol.CommandArgs;
+import protocol.ReplyBuffer;
+import protocol.RespParser;
+import storage.Key;
 
+/**
+ * Feeds the replication stream: every write command is encoded once into the shared {@link ReplicationBacklog},
+ * which keeps the master offset, and each connected replica is streamed from it by its own thread.
+ * <p>
+ * Appending only copies the bytes and wakes the replica threads, so the writer never waits on a replica's socket.
+ * A replica that falls further behind than the {@code client-output-buffer-limit} is disconnected instead of
+ * keeping ever more of the stream in memory; it reconnects and resumes from the backlog, or resyncs in full.
+ * <p>
+ * The offsets the replicas acknowledge are recorded as they arrive, and a {@code WAIT} is a future completed by
+ * the acknowledgement that satisfies it, or by its timeout, with no thread waiting on it.
+ * <p>
+ * Replicas that need a full resync are handed to the {@link FullSyncCoordinator}, which serves all those that
+ * turn up together from one snapshot.
+ */
 public class CommandReplicator {
     private static final Logger logger = Logger.getLogger(CommandReplicator.class.getName());
 
-    public void replicateWriteCommand(String command) {
-        var replicaClients = ObjectFactory.getInstance().getProperties().getReplicaClients();
-        if (replicaClients == null || replicaClients.isEmpty()) {
-            logger.info("No replica clients available for replication");
-            return;
+    private static final byte[] DEL = "DEL".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GETACK =
+            "*3\r\n$8\r\nREPLCONF\r\n$6\r\nGETACK\r\n$1\r\n*\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final ReplicationBacklog backlog;
+    private final List<AckWaiter> ackWaiters = new ArrayList<>();
+    private final FullSyncCoordinator fullSyncs = new FullSyncCoordinator(this);
+
+    /**
+     * A WAIT for {@code replicas} replicas to acknowledge {@code offset}.
+     */
+    private record AckWaiter(long offset, int replicas, CompletableFuture<Integer> future) {
+    }
+
+    public CommandReplicator(int backlogSize) {
+        this.backlog = new ReplicationBacklog(backlogSize);
+    }
+
+    /**
+     * Replicates a write command and returns the master offset right after it.
+     */
+    public long replicateWriteCommand(CommandArgs args) {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Replicating command: " + args);
+        }
+        return replicate(encode(args));
+    }
+
+    /**
+     * Replicates the deletion of a key the master removed on its own, such as an eviction.
+     */
+    public long replicateDelete(Key key) {
+        byte[] bytes = key.bytes();
+        ReplyBuffer encoded = new ReplyBuffer(bytes.length + 32);
+        encoded.writeArrayHeader(2);
+        encoded.writeBulkString(DEL);
+        encoded.writeBulkString(bytes);
+        return replicate(encoded.toByteArray());
+    }
+
+    /**
+     * Appends {@code data} to the replication stream for every replica to pick up, and returns the new master
+     * offset.
+     */
+    public long replicate(byte[] data) {
+        ApplicationProperties properties = ObjectFactory.getInstance().getProperties();
+        lock.lock();
+        try {
+            long masterOffset = backlog.append(data);
+            properties.getReplicationOffset().set(masterOffset);
+            long neededFrom = masterOffset + 1;
+            for (ReplicaClient replicaClient : properties.getReplicaClients()) {
+                if (overLimit(replicaClient, masterOffset, properties.getReplicaOutputBufferLimit())) {
+                    logger.warning("Replica at port " + replicaClient.getReplicaSocket().getPort()
+                            + " is over the output buffer limit, disconnecting it");
+                    replicaClient.close();
+                } else {
+                    neededFrom = Math.min(neededFrom, replicaClient.getCursor().offset() + 1);
+                }
+            }
+            backlog.trim(neededFrom);
+            appended.signalAll();
+            return masterOffset;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A future of the number of replicas that have acknowledged {@code offset}, completed as soon as that is at
+     * least {@code replicas}, or after {@code timeoutMillis} with however many have; 0 waits for as long as it
+     * takes. Replicas are asked to acknowledge right away rather than at their next periodic ACK.
+     */
+    public CompletableFuture<Integer> waitForAcks(long offset, int replicas, long timeoutMillis) {
+        AckWaiter waiter;
+        lock.lock();
+        try {
+            int acked = countAcked(offset);
+            if (acked >= replicas) {
+                return CompletableFuture.completedFuture(acked);
+            }
+            waiter = new AckWaiter(offset, replicas, new CompletableFuture<>());
+            ackWaiters.add(waiter);
+            replicate(GETACK);
+        } finally {
+            lock.unlock();
+        }
+        if (timeoutMillis > 0) {
+            CompletableFuture.delayedExecutor(timeoutMillis, TimeUnit.MILLISECONDS).execute(() -> expire(waiter));
+        }
+        return waiter.future();
+    }
+
+    private void expire(AckWaiter waiter) {
+        int acked;
+        lock.lock();
+        try {
+            if (!ackWaiters.remove(waiter)) {
+                return;
+            }
+            acked = countAcked(waiter.offset());
+        } finally {
+            lock.unlock();
+        }
+        waiter.future().complete(acked);
+    }
+
+    /**
+     * Records the offset a replica reports to have processed, and completes the waits it satisfies.
+     */
+    private void acknowledge(ReplicaClient replicaClient, long offset) {
+        List<AckWaiter> satisfied = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        lock.lock();
+        try {
+            long previous = replicaClient.getAckedOffset();
+            // A stale ACK still shows the replica is alive
+            replicaClient.setAckedOffset(Math.max(previous, offset));
+            if (offset <= previous) {
+                return;
+            }
+            for (AckWaiter waiter : ackWaiters) {
+                if (waiter.offset() <= offset) {
+                    int acked = countAcked(waiter.offset());
+                    if (acked >= waiter.replicas()) {
+                        satisfied.add(waiter);
+                        counts.add(acked);
+                    }
+                }
+            }
+            ackWaiters.removeAll(satisfied);
+        } finally {
+            lock.unlock();
+        }
+        // Outside the lock, as completing runs whatever the waiting connection chained to the future
+        for (int i = 0; i < satisfied.size(); i++) {
+            satisfied.get(i).future().complete(counts.get(i));
         }
+    }
+
+    private int countAcked(long offset) {
+        int acked = 0;
+        for (ReplicaClient replicaClient : ObjectFactory.getInstance().getProperties().getReplicaClients()) {
+            if (replicaClient.getAckedOffset() >= offset) {
+                acked++;
+            }
+        }
+        return acked;
+    }
+
+    private boolean overLimit(ReplicaClient replicaClient, long masterOffset, OutputBufferLimit limit) {
+        // What the replica has not taken yet, plus what it has taken but its socket has not
+        long pending = masterOffset - replicaClient.getSentOffset();
+        if (limit.hardBytes() > 0 && pending > limit.hardBytes()) {
+            return true;
+        }
+        if (limit.softBytes() > 0 && pending > limit.softBytes()) {
+            long now = System.currentTimeMillis();
+            if (replicaClient.getSoftLimitReachedAt() == 0) {
+                replicaClient.setSoftLimitReachedAt(now);
+            }
+            return now - replicaClient.getSoftLimitReachedAt() > limit.softSeconds() * 1000L;
+        }
+        replicaClient.setSoftLimitReachedAt(0);
+        return false;
+    }
+
+    /**
+     * Runs {@code action} with the current master offset, with no write replicated in the meantime, as a full
+     * sync needs for its snapshot.
+     */
+    public <T> T atOffset(LongFunction<T> action) {
+        lock.lock();
+        try {
+            return action.apply(backlog.getMasterOffset());
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        logger.info("Replicating command to " + replicaClients.size() + " replicas: " + command);
-        replicaClients.forEach(replicaClient -> replicate(replicaClient, command));
+    /**
+     * Starts streaming to a replica that has the data up to {@code offset}, beginning with whatever was replicated
+     * since. Returns false, leaving the replica out, if that part is no longer in the backlog.
+     */
+    public boolean addReplica(ReplicaClient replicaClient, long offset) {
+        replicaClient.rdbSent();
+        return attachReplica(replicaClient, offset);
     }
 
-    private void replicate(ReplicaClient replicaClient, String command) {
-        String[] args = command.split(" ");
+    /**
+     * Starts keeping the stream from {@code offset} for a replica, which is only written to once
+     * {@link ReplicaClient#rdbSent()} lets it.
+     */
+    boolean attachReplica(ReplicaClient replicaClient, long offset) {
+        lock.lock();
+        try {
+            ReplicationBacklog.Cursor cursor = backlog.cursorAt(offset);
+            if (cursor == null) {
+                return false;
+            }
+            ObjectFactory.getInstance().getProperties().addReplicaClient(replicaClient);
+            replicaClient.start(cursor, () -> stream(replicaClient), () -> readAcks(replicaClient));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a replica for a full resync. It is sent {@code +FULLRESYNC} and an RDB file along with whichever
+     * other replicas ask within the {@code repl-diskless-sync-delay}, then streamed to like any other.
+     */
+    public void fullSync(Socket replicaSocket, boolean eofCapable) {
+        fullSyncs.add(replicaSocket, eofCapable);
+    }
 
-        StringBuilder formattedCommand = new StringBuilder();
-        formattedCommand.append("*").append(args.length).append("\r\n");
-        for (String arg : args) {
-            formattedCommand.append("$").append(arg.length()).append("\r\n");
-            formattedCommand.append(arg).append("\r\n");
+    /**
+     * The loop of a replica's thread: waits for the stream to move past the replica, then writes it all the new
+     * bytes at once.
+     */
+    private void stream(ReplicaClient replicaClient) {
+        try {
+            replicaClient.awaitRdbSent();
+            while (true) {
+                List<ByteBuffer> chunks;
+                long endOffset;
+                lock.lock();
+                try {
+                    ReplicationBacklog.Cursor cursor = replicaClient.getCursor();
+                    while (!replicaClient.isClosed() && cursor.offset() == backlog.getMasterOffset()) {
+                        appended.await();
+                    }
+                    if (replicaClient.isClosed()) {
+                        return;
+                    }
+                    chunks = backlog.read(cursor);
+                    endOffset = cursor.offset();
+                } finally {
+                    lock.unlock();
+                }
+                replicaClient.write(chunks, endOffset);
+            }
+        } catch (IOException | InterruptedException e) {
+            if (!replicaClient.isClosed()) {
+                logger.warning("Lost replica at port " + replicaClient.getReplicaSocket().getPort() + ": "
+                        + e.getMessage());
+            }
+        } finally {
+            replicaClient.close();
         }
+    }
 
-        byte[] data = formattedCommand.toString().getBytes(StandardCharsets.UTF_8);
-        replicaClient.send(data);
+    /**
+     * The loop of a replica's other thread: reads the {@code REPLCONF ACK <offset>} commands the replica sends
+     * back, the only thing it sends once it is streamed to.
+     */
+    private void readAcks(ReplicaClient replicaClient) {
+        RespParser parser = new RespParser();
+        try {
+            InputStream inputStream = replicaClient.getReplicaSocket().getInputStream();
+            while (parser.readFrom(inputStream) >= 0) {
+                CommandArgs args;
+                while ((args = parser.next()) != null) {
+                    if (args.count() == 3 && args.equalsIgnoreCase(0, "REPLCONF")
+                            && args.equalsIgnoreCase(1, "ACK")) {
+                        try {
+                            acknowledge(replicaClient, Long.parseLong(args.getString(2)));
+                        } catch (NumberFormatException e) {
+                            logger.warning("Invalid ACK offset from replica: " + args);
+                        }
+                    } else {
+                        if (logger.isLoggable(Level.FINE)) {
+                            logger.fine("Ignoring command from replica: " + args);
+                        }
+                    }
+                }
+                parser.compact();
+            }
+        } catch (IOException e) {
+            if (!replicaClient.isClosed()) {
+                logger.warning("Lost replica at port " + replicaClient.getReplicaSocket().getPort() + ": "
+                        + e.getMessage());
+            }
+        } finally {
+            replicaClient.close();
+        }
+    }
+
+    public ReplicationBacklog getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * Encodes the command once, straight from the parsed slices, for every replica to share.
+     */
+    private byte[] encode(CommandArgs args) {
+        ReplyBuffer encoded = new ReplyBuffer(args.frameLength());
+        encoded.writeArrayHeader(args.count());
+        for (int i = 0; i < args.count(); i++) {
+            encoded.writeBulkString(args.buffer(), args.offset(i), args.length(i));
+        }
+        return encoded.toByteArray();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,235 @@
+package replica;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import config.ApplicationProperties;
+import config.ObjectFactory;
+import protocol.persistence.RDBWriter;
+import storage.Snapshot;
+import storage.Storage;
+
+/**
+ * Serves full resyncs, as many replicas as ask together from a single RDB file.
+ * <p>
+ * The first replica to ask opens a window of {@code repl-diskless-sync-delay} seconds, and all the replicas that ask
+ * within it share one snapshot, taken when the window closes. If every one of them announced {@code capa eof}, the
+ * file is never held in memory: it is written to all their sockets as it is encoded, framed as Redis does for
+ * diskless replication, {@code $EOF:<mark>\r\n}, the file, then the mark again, since its length is only known at
+ * the end. A replica without that capability needs the length up front, so it closes the window at once and the
+ * file is built in memory, still only once, then sent to every replica of the batch.
+ * <p>
+ * Replicas that ask while a file is being sent wait for the next one. A single thread sends it to all, so the
+ * slowest replica of a batch sets its pace, as in Redis.
+ */
+class FullSyncCoordinator {
+    private static final Logger logger = Logger.getLogger(FullSyncCoordinator.class.getName());
+
+    private static final int EOF_MARK_LENGTH = 40;
+    // The buffer is all the file a diskless transfer holds at a time
+    private static final int RDB_BUFFER_SIZE = 64 * 1024;
+
+    private final CommandReplicator replicator;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition requested = lock.newCondition();
+    private final List<Request> requests = new ArrayList<>();
+    // When the window of the pending requests closes, in System.nanoTime() terms
+    private long startAt;
+    private Thread sender;
+
+    private record Request(Socket socket, boolean eofCapable) {
+    }
+
+    private record FullSync(long offset, Snapshot snapshot) {
+    }
+
+    FullSyncCoordinator(CommandReplicator replicator) {
+        this.replicator = replicator;
+    }
+
+    void add(Socket socket, boolean eofCapable) {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (requests.isEmpty()) {
+                int delay = eofCapable ? ObjectFactory.getInstance().getProperties().getReplDisklessSyncDelay() : 0;
+                startAt = now + TimeUnit.SECONDS.toNanos(delay);
+            } else if (!eofCapable) {
+                startAt = now;
+            }
+            requests.add(new Request(socket, eofCapable));
+            if (sender == null) {
+                sender = Thread.ofPlatform().daemon().name("full-sync").start(this::run);
+            }
+            requested.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                List<Request> batch;
+                lock.lock();
+                try {
+                    while (requests.isEmpty()) {
+                        requested.await();
+                    }
+                    long wait;
+                    while ((wait = startAt - System.nanoTime()) > 0) {
+                        requested.awaitNanos(wait);
+                    }
+                    batch = new ArrayList<>(requests);
+                    requests.clear();
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    transfer(batch);
+                } catch (RuntimeException e) {
+                    logger.severe("Full resync failed: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.fine("Full sync thread stopped");
+        }
+    }
+
+    private void transfer(List<Request> batch) {
+        ApplicationProperties properties = ObjectFactory.getInstance().getProperties();
+        Storage storage = ObjectFactory.getInstance().getPersistenceManager().getStorage();
+        boolean diskless = batch.stream().allMatch(Request::eofCapable);
+
+        // The replicas are attached to the stream where the snapshot is taken, so the backlog keeps what follows
+        // for them however long the transfer takes, within their output buffer limit
+        List<ReplicaClient> replicas = new ArrayList<>(batch.size());
+        try {
+            FullSync fullSync = replicator.atOffset(offset -> {
+                for (Request request : batch) {
+                    ReplicaClient replicaClient = new ReplicaClient(request.socket());
+                    if (replicator.attachReplica(replicaClient, offset)) {
+                        replicas.add(replicaClient);
+                    }
+                }
+                return new FullSync(offset, storage.openSnapshot());
+            });
+            logger.info("Full resync of " + replicas.size() + " replica(s) at offset " + fullSync.offset()
+                    + (diskless ? ", diskless" : ""));
+
+            long started = System.nanoTime();
+            long size;
+            try (Snapshot snapshot = fullSync.snapshot()) {
+                String header = "+FULLRESYNC " + properties.getReplicationId() + " " + fullSync.offset() + "\r\n";
+                if (diskless) {
+                    String mark = ApplicationProperties.generateRandomString(EOF_MARK_LENGTH);
+                    send(replicas, (header + "$EOF:" + mark + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                    size = newWriter(new FanOutChannel(replicas), properties).write(snapshot);
+                    send(replicas, mark.getBytes(StandardCharsets.US_ASCII));
+                } else {
+                    ByteArrayOutputStream rdbFile = new ByteArrayOutputStream();
+                    size = newWriter(Channels.newChannel(rdbFile), properties).write(snapshot);
+                    send(replicas, (header + "$" + size + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                    send(replicas, rdbFile.toByteArray());
+                }
+            } catch (IOException e) {
+                logger.severe("Failed to send the RDB file: " + e.getMessage());
+                return;
+            }
+
+            int sent = 0;
+            for (ReplicaClient replicaClient : replicas) {
+                if (!replicaClient.isClosed()) {
+                    replicaClient.rdbSent();
+                    sent++;
+                }
+            }
+            logger.info(String.format("Sent an RDB file of %d bytes to %d replica(s) in %d ms", size, sent,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)));
+        } finally {
+            // Whatever went wrong, a replica still waiting for its file must not stay attached to the stream
+            for (ReplicaClient replicaClient : replicas) {
+                if (!replicaClient.isOnline()) {
+                    replicaClient.close();
+                }
+            }
+        }
+    }
+
+    private static RDBWriter newWriter(WritableByteChannel channel, ApplicationProperties properties) {
+        return new RDBWriter(channel, RDB_BUFFER_SIZE, properties.isRdbCompression(),
+                properties.getRdbCompressionMinLength());
+    }
+
+    /**
+     * Writes {@code bytes} to each replica still in the transfer, dropping any that fails. Fails once none is left,
+     * as there is no point in encoding the rest of the file.
+     */
+    private static void send(List<ReplicaClient> replicas, byte[] bytes) throws IOException {
+        send(replicas, bytes, 0, bytes.length);
+    }
+
+    private static void send(List<ReplicaClient> replicas, byte[] bytes, int offset, int length) throws IOException {
+        boolean any = false;
+        for (ReplicaClient replicaClient : replicas) {
+            if (replicaClient.isClosed()) {
+                continue;
+            }
+            try {
+                replicaClient.getReplicaSocket().getOutputStream().write(bytes, offset, length);
+                any = true;
+            } catch (IOException e) {
+                logger.warning("Lost replica at port " + replicaClient.getReplicaSocket().getPort()
+                        + " during full resync: " + e.getMessage());
+                replicaClient.close();
+            }
+        }
+        if (!any) {
+            throw new IOException("No replica left to send the RDB file to");
+        }
+    }
+
+    /**
+     * The channel the RDB file is encoded into for a diskless transfer, copying each chunk to every replica.
+     */
+    private static final class FanOutChannel implements WritableByteChannel {
+        private final List<ReplicaClient> replicas;
+        private byte[] chunk = new byte[0];
+
+        private FanOutChannel(List<ReplicaClient> replicas) {
+            this.replicas = replicas;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int length = src.remaining();
+            // The writer's buffer is direct, copy it out once for all the sockets
+            if (chunk.length < length) {
+                chunk = new byte[length];
+            }
+            src.get(chunk, 0, length);
+            send(replicas, chunk, 0, length);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -1,80 +1,146 @@
 package replica;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Socket;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeoutException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.logging.Logger;
 
+import config.ObjectFactory;
+
+/**
+ * A connected replica. It has no output buffer of its own: a thread streams the shared
+ * {@link ReplicationBacklog} to its socket from where the replica is, writing whatever has piled up since the last
+ * write in block-sized chunks. Another thread reads the {@code REPLCONF ACK} offsets the replica sends back.
+ * <p>
+ * A replica in a full resync is attached to the stream at the offset of its snapshot before the RDB file goes out,
+ * so the backlog keeps what it will need, but its thread only starts writing once the file has been sent.
+ */
 public class ReplicaClient {
     private static final Logger logger = Logger.getLogger(ReplicaClient.class.getName());
 
     private final Socket replicaSocket;
+    private final CountDownLatch rdbSent = new CountDownLatch(1);
 
-    private final ExecutorService executorService;
+    // Guarded by the lock of the CommandReplicator
+    private ReplicationBacklog.Cursor cursor;
+    private long softLimitReachedAt;
 
-    private final Object socketLock = new Object();
+    // End of the last write that went through, behind the cursor while a write is blocked on the socket
+    private volatile long sentOffset;
+    // Written under the lock too, read by INFO without it
+    private volatile long ackedOffset;
+    private volatile long lastAckMillis = System.currentTimeMillis();
+    private volatile boolean closed;
+    private Thread sender;
+    private Thread reader;
 
     public ReplicaClient(Socket replicaSocket) {
         this.replicaSocket = replicaSocket;
-        this.executorService = Executors.newSingleThreadExecutor();
     }
 
-    public void send(byte[] data) {
-        logger.info("Sending data to replica, size: " + data.length);
-        logger.info("Data content: " + new String(data));
-        synchronized(socketLock) {
-            executorService.execute(() -> doSend(data));
+    void start(ReplicationBacklog.Cursor cursor, Runnable stream, Runnable readAcks) {
+        this.cursor = cursor;
+        this.sentOffset = cursor.offset();
+        if (isOnline()) {
+            // The replica has the data up to where it starts
+            this.ackedOffset = cursor.offset();
         }
+        this.sender = Thread.ofVirtual().name("replica-" + replicaSocket.getPort()).start(stream);
+        this.reader = Thread.ofVirtual().name("replica-acks-" + replicaSocket.getPort()).start(readAcks);
     }
 
-    public byte[] sendAndAwaitResponse(byte[] data, long timeout) {
-        logger.info("Sending data to replica at port" + replicaSocket.getPort() + "the command is " + new String(data));
-        Future<byte[]> future = executorService.submit(()-> doSendAndAwait(data));
-        try {
-            return future.get(timeout, java.util.concurrent.TimeUnit.MILLISECONDS);
-        } catch (TimeoutException e) {
-            logger.warning("Timeout while waiting for response from replica at port " + replicaSocket.getPort());
-            future.cancel(true);
-            return null;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * Lets the stream go out, once the replica has its RDB file or right away if it resumes without one.
+     */
+    void rdbSent() {
+        rdbSent.countDown();
     }
 
-    private byte[] doSendAndAwait(byte[] data) {
-        try {
-            OutputStream outputStream = replicaSocket.getOutputStream();
-            outputStream.write(data);
-            logger.info("Data sent to replica at port " + replicaSocket.getPort());
-            outputStream.flush();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(replicaSocket.getInputStream()));
-            logger.info("Waiting for response from replica at port " + replicaSocket.getPort());
-            String response ;
-            while ((response = reader.readLine()) == null) {
-                Thread.sleep(100);
-            }
-            logger.info("Received response from replica at port " + replicaSocket.getPort());
-            return response.getBytes();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    void awaitRdbSent() throws InterruptedException {
+        rdbSent.await();
+    }
+
+    /**
+     * Whether the replica is streamed to, rather than still being sent its RDB file.
+     */
+    public boolean isOnline() {
+        return rdbSent.getCount() == 0;
+    }
+
+    ReplicationBacklog.Cursor getCursor() {
+        return cursor;
+    }
+
+    long getSentOffset() {
+        return sentOffset;
+    }
+
+    /**
+     * The offset of the replication stream the replica last reported to have processed.
+     */
+    public long getAckedOffset() {
+        return ackedOffset;
+    }
+
+    void setAckedOffset(long ackedOffset) {
+        this.ackedOffset = ackedOffset;
+        this.lastAckMillis = System.currentTimeMillis();
+    }
+
+    public long getLastAckMillis() {
+        return lastAckMillis;
+    }
+
+    /**
+     * When the replica went over the soft output buffer limit, or 0 if it is under it.
+     */
+    long getSoftLimitReachedAt() {
+        return softLimitReachedAt;
+    }
+
+    void setSoftLimitReachedAt(long softLimitReachedAt) {
+        this.softLimitReachedAt = softLimitReachedAt;
+    }
+
+    /**
+     * Writes the chunks read up to {@code endOffset} of the stream.
+     */
+    void write(List<ByteBuffer> chunks, long endOffset) throws IOException {
+        OutputStream outputStream = replicaSocket.getOutputStream();
+        for (ByteBuffer chunk : chunks) {
+            outputStream.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
         }
+        outputStream.flush();
+        sentOffset = endOffset;
+    }
+
+    boolean isClosed() {
+        return closed;
     }
 
-    private void doSend(byte[] data) {
-        synchronized(socketLock) {
-            try {
-                OutputStream outputStream = replicaSocket.getOutputStream();
-                outputStream.write(data);
-                logger.info("Data sent to replica at port " + replicaSocket.getPort());
-                outputStream.flush();
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
+    /**
+     * Drops the replica: it stops receiving the stream and its connection is closed, so that it reconnects and
+     * asks for what it missed.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        ObjectFactory.getInstance().getProperties().getReplicaClients().remove(this);
+        if (sender != null && sender != Thread.currentThread()) {
+            sender.interrupt();
+        }
+        if (reader != null && reader != Thread.currentThread()) {
+            reader.interrupt();
+        }
+        try {
+            replicaSocket.close();
+        } catch (IOException e) {
+            logger.fine("Failed to close replica socket: " + e.getMessage());
         }
     }
 
@@ -4,44 +4,70 @@ import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.net.Socket;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.commons.lang3.tuple.Pair;
-
 import command.Handler;
 import command.factory.CommandFactory;
 
-import java.util.Map;
-import java.io.ByteArrayInputStream;
-
 import config.ObjectFactory;
 import config.ReplicaProperties;
-import protocol.ProtocolDeserializer;
+import protocol.CommandArgs;
+import protocol.ReplyBuffer;
+import protocol.RespParser;
 import protocol.persistence.RDBLoader;
-import storage.StorageRecord;
+import storage.Storage;
 
 public class ReplicaRunner extends Thread {
     private static final Logger logger = Logger.getLogger(ReplicaRunner.class.getName());
-    private long offset = 0;
+    // Redis retries a lost master link, and acknowledges its offset, once a second too
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+    private static final long ACK_INTERVAL_MILLIS = 1000;
+    private static final String EOF_MARK_PREFIX = "EOF:";
+
+    // Where this replica stands in the master's replication stream, kept across connections to resume from
+    private String masterReplicationId;
+    private volatile long offset = 0;
+    // The periodic ACKs and the replies to the master's commands share the connection
+    private final ReentrantLock writeLock = new ReentrantLock();
 
     @Override
     public void run() {
         logger.info("Starting replica " + ObjectFactory.getInstance().getProperties().getPort());
         ReplicaProperties replicaProperties = ObjectFactory.getInstance().getProperties().getReplicaProperties();
 
-        try (Socket masterSocket = new Socket(replicaProperties.host(), replicaProperties.port());
-             OutputStream outputStream = masterSocket.getOutputStream();
-             DataInputStream dataInputStream = new DataInputStream(masterSocket.getInputStream())) {
-            initReplica(outputStream, dataInputStream);
-            processCommands(outputStream,dataInputStream);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        while (!isInterrupted()) {
+            try (Socket masterSocket = new Socket(replicaProperties.host(), replicaProperties.port());
+                 OutputStream outputStream = masterSocket.getOutputStream();
+                 // A diskless RDB payload may have to give back the commands read past its end
+                 PushbackInputStream inputStream = new PushbackInputStream(masterSocket.getInputStream(),
+                         RDBLoader.STREAM_BUFFER_SIZE);
+                 DataInputStream dataInputStream = new DataInputStream(inputStream)) {
+                initReplica(outputStream, inputStream, dataInputStream);
+                Thread acks = Thread.ofVirtual().name("replica-acks").start(() -> sendAcks(outputStream));
+                try {
+                    processCommands(outputStream, dataInputStream);
+                } finally {
+                    acks.interrupt();
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warning("Connection to master failed: " + e.getMessage());
+            }
+            logger.info("Reconnecting to master in " + RECONNECT_DELAY_MILLIS + " ms");
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
         }
     }
 
-    private void initReplica(OutputStream outputStream, DataInputStream dataInputStream) throws IOException {
+    private void initReplica(OutputStream outputStream, PushbackInputStream inputStream,
+                             DataInputStream dataInputStream) throws IOException {
         logger.info("Initializing replica");
 
         // Step 1: PING
@@ -60,18 +86,31 @@ public class ReplicaRunner extends Thread {
             throw new RuntimeException("Failed to send REPLCONF listening-port");
         }
 
-        // Step 3: REPLCONF capa psync2
-        sendCommand(outputStream, "REPLCONF", "capa", "psync2");
+        // Step 3: REPLCONF capa, taking the RDB file without its length up front so the master can stream it
+        sendCommand(outputStream, "REPLCONF", "capa", "eof", "capa", "psync2");
         response = parseSimpleString(dataInputStream);
         if (!response.equals("OK")) {
             throw new RuntimeException("Failed to send REPLCONF capa");
         }
 
-        // Step 4: PSYNC
-        sendCommand(outputStream, "PSYNC", "?", "-1");
+        // Step 4: PSYNC, resuming after the last byte processed if this replica has synced before
+        if (masterReplicationId == null) {
+            sendCommand(outputStream, "PSYNC", "?", "-1");
+        } else {
+            sendCommand(outputStream, "PSYNC", masterReplicationId, String.valueOf(offset + 1));
+        }
         response = parseSimpleString(dataInputStream);
         logger.info("PSYNC response: " + response);
-        if (!response.startsWith("FULLRESYNC")) {
+        String[] parts = response.split(" ");
+        if (parts[0].equals("CONTINUE")) {
+            // The master may have changed its ID, the offsets carry on regardless
+            if (parts.length > 1) {
+                setMasterReplicationId(parts[1]);
+            }
+            logger.info("Partial resync accepted, continuing from offset " + offset);
+            return;
+        }
+        if (!parts[0].equals("FULLRESYNC") || parts.length < 3) {
             throw new RuntimeException("Failed to initialize replica: " + response);
         }
 
@@ -82,7 +121,7 @@ public class ReplicaRunner extends Thread {
             throw new RuntimeException("Expected '$', got: " + (char) c);
         }
 
-        // Read length
+        // Read the length, or the EOF mark of a diskless transfer
         StringBuilder lengthBuilder = new StringBuilder();
         while ((c = dataInputStream.read()) != '\r') {
             if (c == -1) {
@@ -93,25 +132,57 @@ public class ReplicaRunner extends Thread {
         // Consume '\n'
         dataInputStream.read();
 
-        int length = Integer.parseInt(lengthBuilder.toString());
-        logger.info("RDB data length: " + length);
-
-        // Read RDB data
-        byte[] rdbData = new byte[length];
-        dataInputStream.readFully(rdbData);
+        // Load the RDB data as it arrives, into a new keyspace swapped in at the end; the old one serves meanwhile.
+        // A failed load leaves the replica without a position, so the next attempt syncs in full.
+        masterReplicationId = null;
+        RDBLoader rdbLoader = ObjectFactory.getInstance().getPersistenceManager().getRdbLoader();
+        Storage storage = ObjectFactory.getInstance().getPersistenceManager().getStorage();
+        RDBLoader.LoadStats stats;
+        String lengthOrMark = lengthBuilder.toString();
+        if (lengthOrMark.startsWith(EOF_MARK_PREFIX)) {
+            logger.info("RDB data of unknown length, diskless");
+            byte[] eofMark = lengthOrMark.substring(EOF_MARK_PREFIX.length()).getBytes(StandardCharsets.US_ASCII);
+            stats = rdbLoader.load(inputStream, eofMark, storage);
+        } else {
+            long length = Long.parseLong(lengthOrMark);
+            logger.info("RDB data length: " + length);
+            stats = rdbLoader.load(dataInputStream, length, storage);
+        }
+        setMasterReplicationId(parts[1]);
+        setOffset(Long.parseLong(parts[2]));
+        logger.info("Replica initialized successfully with " + stats.keys() + " records");
+    }
 
-        // Process RDB data
+    /**
+     * Tells the master the offset processed so far, every {@link #ACK_INTERVAL_MILLIS}, so that a WAIT on it is
+     * answered even when no GETACK got through.
+     */
+    private void sendAcks(OutputStream outputStream) {
         try {
-            DataInputStream rdbInputStream = new DataInputStream(new ByteArrayInputStream(rdbData));
-            RDBLoader rdbLoader = ObjectFactory.getInstance().getPersistenceManager().getRdbLoader();
-            Map<String, StorageRecord> records = rdbLoader.readAllPairsFromStream(rdbInputStream);
-            ObjectFactory.getInstance().getPersistenceManager().getStorage().setStore(records);
-            logger.info("Replica initialized successfully with " + records.size() + " records");
-        } catch (IOException e) {
-            logger.severe("Error processing RDB data: " + e.getMessage());
+            while (true) {
+                Thread.sleep(ACK_INTERVAL_MILLIS);
+                writeLock.lock();
+                try {
+                    sendCommand(outputStream, "REPLCONF", "ACK", String.valueOf(offset));
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        } catch (InterruptedException | IOException e) {
+            logger.fine("Stopped sending ACKs: " + e.getMessage());
         }
     }
 
+    private void setMasterReplicationId(String replicationId) {
+        masterReplicationId = replicationId;
+        ObjectFactory.getInstance().getProperties().setReplicationId(replicationId);
+    }
+
+    private void setOffset(long offset) {
+        this.offset = offset;
+        ObjectFactory.getInstance().getProperties().getReplicationOffset().set(offset);
+    }
+
     private void sendCommand(OutputStream outputStream, String... args) throws IOException {
         StringBuilder command = new StringBuilder();
         command.append("*").append(args.length).append("\r\n");
@@ -145,78 +216,61 @@ public class ReplicaRunner extends Thread {
     }
 
     private void processCommands(OutputStream outputStream, DataInputStream dataInputStream) {
-        ProtocolDeserializer deserializer = ObjectFactory.getInstance().getProtocolDeserializer();
         CommandFactory commandFactory = ObjectFactory.getInstance().getCommandFactory();
-    
-        while (true) {
-            try {
-                Pair<String, Long> parsedInput = deserializer.parseInput(dataInputStream);
-                String commandLine = parsedInput.getLeft();
-                logger.info("Received command from master: " + commandLine);
-
-                // Skip processing responses (they start with '+')
-                if (commandLine.startsWith("+")) {
-                    logger.fine("Received response from master: " + commandLine);
-                    continue;
-                }
-                
-                // If the message starts with "ERR", it's an error message - just log it and continue
-                if (commandLine.startsWith("ERR")) {
-                    logger.warning("Received error from master: " + commandLine);
-                    continue;
-                }
-    
-                String[] args = commandLine.split(" ");
-                Handler handler = commandFactory.getHandler(args[0].toUpperCase());
-
-                long newOffset = calculateCommandOffset(args);
-
-
-                if (handler != null) {
-                    logger.info("Processing command: " + Arrays.toString(args) + " with handler: " + handler.getClass().getName());
-                    byte[] response = handler.handle(args);
-                    logger.info("Processed command: " + Arrays.toString(args) + " with offset: " + newOffset);
-                    ObjectFactory.getInstance().getProperties().getReplicationOffset().set(newOffset);
-                    // Send response back to master
-                    if (args[0].equalsIgnoreCase("REPLCONF") && requiresResponse(args[0])) {
-                        outputStream.write(response);
-                        outputStream.flush();
-                    } else if (requiresResponse(args[0]) && !args[0].equalsIgnoreCase("PING")) {
-                        outputStream.write(response);
-                        outputStream.flush();
+        RespParser parser = new RespParser();
+        ReplyBuffer response = new ReplyBuffer();
+
+        try {
+            while (parser.readFrom(dataInputStream) >= 0) {
+                CommandArgs args;
+                while ((args = parser.next()) != null) {
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.fine("Received command from master: " + args);
                     }
+                    CommandFactory.Command command = commandFactory.find(args);
 
-                } else {
-                    logger.warning("No handler found for command: " + args[0]);
+                    if (command != null) {
+                        Handler handler = commandFactory.getHandler(command);
+                        if (logger.isLoggable(Level.FINE)) {
+                            logger.fine("Processing command: " + args + " with handler: " + handler.getClass().getName());
+                        }
+                        handler.handle(args, response);
+                        // GETACK reports the offset before itself, so only advance once the handler has run
+                        setOffset(offset + args.frameLength());
+                        if (logger.isLoggable(Level.FINE)) {
+                            logger.fine("Processed command: " + command + " with offset: " + offset);
+                        }
+                        // Send response back to master
+                        if (requiresResponse(command)) {
+                            writeLock.lock();
+                            try {
+                                response.writeTo(outputStream);
+                            } finally {
+                                writeLock.unlock();
+                            }
+                        }
+                        response.clear();
+
+                    } else {
+                        // Still part of the stream, so the offset moves past it as it does on the master
+                        setOffset(offset + args.frameLength());
+                        logger.warning("No handler found for command: " + args.getString(0));
+                    }
                 }
-            } catch (IOException e) {
-                logger.severe("End of stream reached while processing commands.");
-                break;
-            } catch (Exception e) {
-                logger.severe("Error processing command from master: " + e.getMessage());
-                break;
+                parser.compact();
             }
+            logger.severe("End of stream reached while processing commands.");
+        } catch (IOException e) {
+            logger.severe("End of stream reached while processing commands.");
+        } catch (Exception e) {
+            logger.severe("Error processing command from master: " + e.getMessage());
         }
     }
 
-    private boolean requiresResponse(String command) {
-        return (command.startsWith("REPLCONF") || command.startsWith("PING") || command.startsWith("PSYNC"));
-    }
-
-    private long calculateCommandOffset(String[] command) {
-        // Start with array header: *<number>\r\n
-        long messageLength = 1 + String.valueOf(command.length).length() + 2;
-        
-        // Add length for each argument: $<length>\r\n<argument>\r\n
-        for (String arg : command) {
-            messageLength += 1;  // $
-            messageLength += String.valueOf(arg.length()).length(); // length digits
-            messageLength += 2;  // \r\n
-            messageLength += arg.length(); // actual argument
-            messageLength += 2;  // \r\n
-        }
-        
-        offset += messageLength;
-        return offset;
+    /**
+     * Whether the master expects a reply. It only sends PINGs to keep the link alive, and reads none back.
+     */
+    private boolean requiresResponse(CommandFactory.Command command) {
+        return command == CommandFactory.Command.REPLCONF || command == CommandFactory.Command.PSYNC;
     }
 }
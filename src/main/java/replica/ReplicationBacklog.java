@@ -0,0 +1,163 @@
+package replica;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The replication stream, written once and shared: it serves as the backlog that lets a replica that lost its
+ * connection be sent just the bytes it missed, and as the output buffer every connected replica drains from at
+ * its own pace.
+ * <p>
+ * The stream is kept as a chain of {@link #BLOCK_SIZE} blocks, the reply chunk size Redis uses, so that a replica
+ * catching up is written whole blocks at a time however small the commands were. A block is dropped once it is
+ * older than the last {@link #getSize()} bytes and no replica still has to read it.
+ * <p>
+ * Offsets are those of the replication stream since the master started, as in Redis: the master offset is the
+ * number of bytes ever appended, and a byte's offset is its position counted from 1, so the backlog holds the
+ * bytes from {@link #getFirstByteOffset()} up to {@link #getMasterOffset()}.
+ * <p>
+ * Appending, reading and trimming are guarded by the lock of the {@link CommandReplicator}; the offsets can be
+ * read without it.
+ */
+public class ReplicationBacklog {
+    static final int BLOCK_SIZE = 16 * 1024;
+
+    private final int size;
+    private Block head;
+    private Block tail;
+    private volatile long masterOffset;
+
+    /**
+     * A part of the stream. Bytes below {@code used} never change, so they can be written out without the lock.
+     */
+    static final class Block {
+        // Offset of the first byte
+        private final long start;
+        private final byte[] data = new byte[BLOCK_SIZE];
+        private int used;
+        private Block next;
+
+        private Block(long start) {
+            this.start = start;
+        }
+    }
+
+    /**
+     * Where a replica is in the stream: it has been handed everything up to {@code offset}, and the next bytes are
+     * in {@code block}, once they have been appended.
+     */
+    static final class Cursor {
+        private Block block;
+        private long offset;
+
+        long offset() {
+            return offset;
+        }
+    }
+
+    public ReplicationBacklog(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Adds bytes to the stream and returns the new master offset.
+     */
+    long append(byte[] data) {
+        int offset = 0;
+        while (offset < data.length) {
+            if (tail == null || tail.used == BLOCK_SIZE) {
+                Block block = new Block(masterOffset + offset + 1);
+                if (tail == null) {
+                    head = block;
+                } else {
+                    tail.next = block;
+                }
+                tail = block;
+            }
+            int chunk = Math.min(data.length - offset, BLOCK_SIZE - tail.used);
+            System.arraycopy(data, offset, tail.data, tail.used, chunk);
+            tail.used += chunk;
+            offset += chunk;
+        }
+        masterOffset += data.length;
+        return masterOffset;
+    }
+
+    /**
+     * A cursor for a replica that has the stream up to {@code offset}, or null if the bytes after it are no longer,
+     * or not yet, in the backlog.
+     */
+    Cursor cursorAt(long offset) {
+        if (!contains(offset + 1)) {
+            return null;
+        }
+        Cursor cursor = new Cursor();
+        cursor.offset = offset;
+        Block block = head;
+        while (block != null && block.start + block.used <= offset + 1 && block.next != null) {
+            block = block.next;
+        }
+        cursor.block = block;
+        return cursor;
+    }
+
+    /**
+     * Views of the bytes from the cursor to the end of the stream, one per block, moving the cursor past them.
+     */
+    List<ByteBuffer> read(Cursor cursor) {
+        List<ByteBuffer> chunks = new ArrayList<>();
+        if (cursor.block == null) {
+            // The stream was empty when the cursor was made
+            cursor.block = head;
+        }
+        while (cursor.offset < masterOffset) {
+            Block block = cursor.block;
+            int from = (int) (cursor.offset + 1 - block.start);
+            if (from == block.used) {
+                cursor.block = block.next;
+                continue;
+            }
+            chunks.add(ByteBuffer.wrap(block.data, from, block.used - from));
+            cursor.offset += block.used - from;
+        }
+        return chunks;
+    }
+
+    /**
+     * Drops the blocks that are entirely before both the backlog and {@code neededFrom}, the first byte a replica
+     * has yet to read.
+     */
+    void trim(long neededFrom) {
+        long keepFrom = Math.min(getFirstByteOffset(), neededFrom);
+        while (head != null && head != tail && head.start + head.used <= keepFrom) {
+            head = head.next;
+        }
+    }
+
+    /**
+     * Whether a replica can resume from offset {@code from}: it is in the backlog, or just past its end.
+     */
+    public boolean contains(long from) {
+        return from >= getFirstByteOffset() && from <= masterOffset + 1;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getMasterOffset() {
+        return masterOffset;
+    }
+
+    /**
+     * Offset of the oldest byte in the backlog; one past the master offset while it is empty.
+     */
+    public long getFirstByteOffset() {
+        return Math.max(1, masterOffset - size + 1);
+    }
+
+    public long getHistlen() {
+        return Math.min(masterOffset, size);
+    }
+}
@@ -0,0 +1,72 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection and thread counters reported by {@code INFO clients}.
+ */
+public class ClientMetrics {
+    private static final String CARRIER_THREAD_CLASS = "jdk.internal.misc.CarrierThread";
+
+    private final AtomicInteger connectedClients = new AtomicInteger();
+    private final AtomicLong totalConnectionsReceived = new AtomicLong();
+    private final AtomicInteger virtualThreads = new AtomicInteger();
+
+    public void clientConnected() {
+        connectedClients.incrementAndGet();
+        totalConnectionsReceived.incrementAndGet();
+    }
+
+    public void clientDisconnected() {
+        connectedClients.decrementAndGet();
+    }
+
+    public void virtualThreadStarted() {
+        virtualThreads.incrementAndGet();
+    }
+
+    public void virtualThreadFinished() {
+        virtualThreads.decrementAndGet();
+    }
+
+    public int getConnectedClients() {
+        return connectedClients.get();
+    }
+
+    public long getTotalConnectionsReceived() {
+        return totalConnectionsReceived.get();
+    }
+
+    public int getVirtualThreads() {
+        return virtualThreads.get();
+    }
+
+    /**
+     * Number of platform threads currently carrying virtual threads. Walks the thread groups, so it is meant
+     * for INFO rather than anything on the request path.
+     */
+    public int getCarrierThreads() {
+        ThreadGroup root = Thread.currentThread().getThreadGroup();
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        Thread[] threads = new Thread[root.activeCount() * 2 + 16];
+        int count = root.enumerate(threads, true);
+        int carriers = 0;
+        for (int i = 0; i < count; i++) {
+            if (CARRIER_THREAD_CLASS.equals(threads[i].getClass().getName())) {
+                carriers++;
+            }
+        }
+        return carriers;
+    }
+
+    /**
+     * Target number of carrier threads of the default virtual thread scheduler.
+     */
+    public int getCarrierParallelism() {
+        return Integer.getInteger("jdk.virtualThreadScheduler.parallelism",
+                Runtime.getRuntime().availableProcessors());
+    }
+}
@@ -0,0 +1,291 @@
+package server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import command.ClientSession;
+import command.CommandDispatcher;
+import config.ObjectFactory;
+import protocol.CommandArgs;
+import protocol.ProtocolException;
+import protocol.ReplyBuffer;
+import protocol.RespParser;
+import replica.ReplicaClient;
+
+/**
+ * A single selector thread multiplexing many client connections. Each connection is owned by exactly one loop
+ * for its whole life, so its state needs no synchronisation.
+ * <p>
+ * A command whose reply comes later, such as WAIT, suspends its connection: nothing more is read or run for it
+ * until the reply completes and the loop is handed it back to send.
+ */
+public class EventLoop extends Thread {
+    private static final Logger logger = Logger.getLogger(EventLoop.class.getName());
+
+    private final ObjectFactory objectFactory;
+    private final CommandDispatcher dispatcher;
+    private final Selector selector;
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    private final List<SelectionKey> replicaHandoffs = new ArrayList<>();
+    private final Queue<Runnable> resumptions = new ConcurrentLinkedQueue<>();
+
+    public EventLoop(int id, ObjectFactory objectFactory) throws IOException {
+        super("event-loop-" + id);
+        this.objectFactory = objectFactory;
+        this.dispatcher = objectFactory.getCommandDispatcher();
+        this.selector = Selector.open();
+        setDaemon(true);
+    }
+
+    /**
+     * Hands an accepted, non-blocking channel to this loop. Safe to call from any thread.
+     */
+    public void register(SocketChannel channel) {
+        pendingChannels.add(channel);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+                registerPendingChannels();
+                runResumptions();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isReadable()) {
+                        handleRead(key);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        handleWrite(key);
+                    }
+                }
+                completeReplicaHandoffs();
+            } catch (IOException e) {
+                logger.severe("IOException in " + getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void registerPendingChannels() {
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            try {
+                ClientSession session = new ClientSession(channel.getRemoteAddress());
+                channel.register(selector, SelectionKey.OP_READ, new NioConnection(channel, session));
+                objectFactory.getClientMetrics().clientConnected();
+            } catch (IOException e) {
+                logger.severe("Failed to register client channel: " + e.getMessage());
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private void handleRead(SelectionKey key) {
+        NioConnection connection = (NioConnection) key.attachment();
+        try {
+            if (connection.read() < 0) {
+                close(key);
+                return;
+            }
+            processInput(key, connection);
+        } catch (ProtocolException e) {
+            closeWithProtocolError(key, connection, e);
+        } catch (IOException | RuntimeException e) {
+            logger.severe("Closing connection " + connection.getSession().getAddress() + ": " + e.getMessage());
+            close(key);
+        }
+    }
+
+    /**
+     * Runs every complete command already buffered, in order, accumulating the replies into one write. Stops early
+     * when the pending output reaches {@link ReplyBuffer#FLUSH_THRESHOLD} and the socket cannot take it, leaving
+     * the remaining commands buffered until the client has read its replies.
+     */
+    private void processInput(SelectionKey key, NioConnection connection) throws IOException {
+        RespParser parser = connection.getParser();
+        ReplyBuffer output = connection.getOutput();
+        CommandArgs args;
+        while ((args = parser.next()) != null) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("Received command " + args);
+            }
+            dispatcher.dispatch(args, connection.getSession(), output);
+            if (connection.getSession().isReplica()) {
+                replicaHandoffs.add(key);
+                return;
+            }
+            CompletableFuture<byte[]> pendingReply = connection.getSession().takePendingReply();
+            if (pendingReply != null) {
+                suspend(key, connection, pendingReply);
+                return;
+            }
+            if (output.isFull() && !connection.flush()) {
+                break;
+            }
+        }
+        parser.compact();
+        updateInterest(key, connection.flush(), output.isFull());
+    }
+
+    private void handleWrite(SelectionKey key) {
+        NioConnection connection = (NioConnection) key.attachment();
+        try {
+            if (connection.isSuspended()) {
+                // Only the replies before the one it waits for
+                key.interestOps(connection.flush() ? 0 : SelectionKey.OP_WRITE);
+            } else if (!connection.flush()) {
+                updateInterest(key, false, connection.getOutput().isFull());
+            } else if (connection.getParser().hasBufferedInput()) {
+                processInput(key, connection);
+            } else {
+                updateInterest(key, true, false);
+            }
+        } catch (ProtocolException e) {
+            closeWithProtocolError(key, connection, e);
+        } catch (IOException | RuntimeException e) {
+            logger.severe("Closing connection " + connection.getSession().getAddress() + ": " + e.getMessage());
+            close(key);
+        }
+    }
+
+    /**
+     * Parks the connection until {@code pendingReply} completes: the replies before it are still written, but no
+     * input is read or run. Completion, on whatever thread it happens, queues the resumption for this loop.
+     */
+    private void suspend(SelectionKey key, NioConnection connection, CompletableFuture<byte[]> pendingReply)
+            throws IOException {
+        connection.setSuspended(true);
+        key.interestOps(connection.flush() ? 0 : SelectionKey.OP_WRITE);
+        pendingReply.whenComplete((reply, error) -> {
+            resumptions.add(() -> resume(key, connection, reply, error));
+            selector.wakeup();
+        });
+    }
+
+    private void resume(SelectionKey key, NioConnection connection, byte[] reply, Throwable error) {
+        if (!key.isValid()) {
+            return;
+        }
+        connection.setSuspended(false);
+        if (error != null) {
+            connection.getOutput().writeError("ERR " + error.getMessage());
+        } else {
+            connection.getOutput().write(reply);
+        }
+        try {
+            // Carries on with the commands that arrived in the meantime
+            processInput(key, connection);
+        } catch (ProtocolException e) {
+            closeWithProtocolError(key, connection, e);
+        } catch (IOException | RuntimeException e) {
+            logger.severe("Closing connection " + connection.getSession().getAddress() + ": " + e.getMessage());
+            close(key);
+        }
+    }
+
+    private void runResumptions() {
+        Runnable resumption;
+        while ((resumption = resumptions.poll()) != null) {
+            resumption.run();
+        }
+    }
+
+    /**
+     * Waits for writability while output is pending, and stops reading while the output backlog is over the
+     * flush threshold so a client that never reads its replies cannot grow it without bound.
+     */
+    private void updateInterest(SelectionKey key, boolean drained, boolean backlogged) {
+        if (drained) {
+            key.interestOps(SelectionKey.OP_READ);
+        } else if (backlogged) {
+            key.interestOps(SelectionKey.OP_WRITE);
+        } else {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Replicas are served by {@link ReplicaClient} over a blocking socket, so after the PSYNC reply the channel
+     * leaves the selector, switches to blocking mode and is passed on.
+     */
+    private void completeReplicaHandoffs() throws IOException {
+        if (replicaHandoffs.isEmpty()) {
+            return;
+        }
+        replicaHandoffs.forEach(SelectionKey::cancel);
+        selector.selectNow();
+        for (SelectionKey key : replicaHandoffs) {
+            // A replica is no longer counted as a client, whether or not the handover succeeds
+            objectFactory.getClientMetrics().clientDisconnected();
+            NioConnection connection = (NioConnection) key.attachment();
+            SocketChannel channel = connection.getChannel();
+            try {
+                channel.configureBlocking(true);
+                connection.flush();
+                Socket socket = channel.socket();
+                if (connection.getSession().needsFullSync()) {
+                    objectFactory.getCommandReplicator().fullSync(socket, connection.getSession().isEofCapable());
+                } else if (!objectFactory.getCommandReplicator().addReplica(new ReplicaClient(socket),
+                        connection.getSession().getReplicationOffset())) {
+                    logger.warning("Replica " + connection.getSession().getAddress()
+                            + " fell behind the backlog before it was handed over");
+                    closeQuietly(channel);
+                    continue;
+                }
+                logger.info("Replica connected " + connection.getSession().getAddress());
+            } catch (IOException e) {
+                logger.severe("Failed to hand over replica connection: " + e.getMessage());
+                closeQuietly(channel);
+            }
+        }
+        replicaHandoffs.clear();
+    }
+
+    /**
+     * Answers input that is not valid RESP with the error, as Redis does, after the replies already due, and closes
+     * the connection. The write is a best effort, as the socket is non-blocking.
+     */
+    private void closeWithProtocolError(SelectionKey key, NioConnection connection, ProtocolException e) {
+        logger.warning("Protocol error from " + connection.getSession().getAddress() + ": " + e.getMessage());
+        connection.getOutput().writeError("ERR " + e.getMessage());
+        try {
+            connection.flush();
+        } catch (IOException ioException) {
+            logger.fine("Error replying to a protocol error: " + ioException.getMessage());
+        }
+        close(key);
+    }
+
+    private void close(SelectionKey key) {
+        objectFactory.getClientMetrics().clientDisconnected();
+        key.cancel();
+        closeQuietly(key.channel());
+    }
+
+    private void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.fine("Error closing channel: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package server;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+import command.ClientSession;
+import protocol.ReplyBuffer;
+import protocol.RespParser;
+
+/**
+ * Connection state owned by a single {@link EventLoop}: the bytes read so far, the replies that have not reached
+ * the socket yet and the {@link ClientSession}. Never touched by more than one thread.
+ */
+class NioConnection {
+    private final SocketChannel channel;
+    private final ClientSession session;
+    private final RespParser parser = new RespParser();
+    private final ReplyBuffer output = new ReplyBuffer();
+    private boolean suspended;
+
+    NioConnection(SocketChannel channel, ClientSession session) {
+        this.channel = channel;
+        this.session = session;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    ClientSession getSession() {
+        return session;
+    }
+
+    RespParser getParser() {
+        return parser;
+    }
+
+    ReplyBuffer getOutput() {
+        return output;
+    }
+
+    /**
+     * Whether the connection waits for the reply of a command before running anything else.
+     */
+    boolean isSuspended() {
+        return suspended;
+    }
+
+    void setSuspended(boolean suspended) {
+        this.suspended = suspended;
+    }
+
+    /**
+     * Reads whatever the socket has available into the parser's buffer. Returns -1 once the peer has closed
+     * the connection.
+     */
+    int read() throws IOException {
+        return channel.read(parser.writableBuffer());
+    }
+
+    /**
+     * Writes as much pending output as the socket accepts without blocking.
+     * Returns true when everything has been written.
+     */
+    boolean flush() throws IOException {
+        return output.writeTo(channel);
+    }
+}
@@ -0,0 +1,55 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Logger;
+
+import config.ObjectFactory;
+
+/**
+ * Non-blocking server: accepts connections on a {@link ServerSocketChannel} and spreads them round-robin over a
+ * fixed number of {@link EventLoop} threads.
+ */
+public class NioServer implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(NioServer.class.getName());
+
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] eventLoops;
+    private int nextLoop;
+
+    public NioServer(ObjectFactory objectFactory) throws IOException {
+        int port = objectFactory.getProperties().getPort();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(port));
+
+        this.eventLoops = new EventLoop[objectFactory.getProperties().getIoThreads()];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(i, objectFactory);
+            eventLoops[i].start();
+        }
+        logger.info("NIO server listening on port " + port + " with " + eventLoops.length + " event loops");
+    }
+
+    /**
+     * Accepts clients until the server channel is closed.
+     */
+    public void serve() throws IOException {
+        while (serverChannel.isOpen()) {
+            SocketChannel channel = serverChannel.accept();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            logger.info("Client connected " + channel.getRemoteAddress());
+            eventLoops[nextLoop].register(channel);
+            nextLoop = (nextLoop + 1) % eventLoops.length;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverChannel.close();
+    }
+}
@@ -0,0 +1,44 @@
+package storage;
+
+public enum EvictionPolicy {
+    NOEVICTION("noeviction", false),
+    ALLKEYS_LRU("allkeys-lru", false),
+    VOLATILE_LRU("volatile-lru", true),
+    ALLKEYS_LFU("allkeys-lfu", false),
+    VOLATILE_LFU("volatile-lfu", true),
+    ALLKEYS_RANDOM("allkeys-random", false),
+    VOLATILE_RANDOM("volatile-random", true),
+    VOLATILE_TTL("volatile-ttl", true);
+
+    private final String value;
+    private final boolean volatileOnly;
+
+    EvictionPolicy(String value, boolean volatileOnly) {
+        this.value = value;
+        this.volatileOnly = volatileOnly;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Whether only keys with a TTL may be evicted.
+     */
+    public boolean isVolatileOnly() {
+        return volatileOnly;
+    }
+
+    public boolean isLfu() {
+        return this == ALLKEYS_LFU || this == VOLATILE_LFU;
+    }
+
+    public static EvictionPolicy fromValue(String value) {
+        for (EvictionPolicy policy : values()) {
+            if (policy.value.equalsIgnoreCase(value)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("Invalid maxmemory-policy: " + value);
+    }
+}
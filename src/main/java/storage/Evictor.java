@@ -0,0 +1,212 @@
+package storage;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import util.Clock;
+
+/**
+ * Keeps the keyspace under {@code maxmemory}.
+ * <p>
+ * Like Redis, eviction is approximated: each round looks at {@code maxmemory-samples} keys taken from a cursor
+ * that walks the keyspace and evicts the best candidate among them for the configured policy. The cost of a round
+ * does not depend on the number of keys, and the cursor moving on means successive rounds see different keys.
+ * <p>
+ * Every record carries an access stamp that reads refresh. Under an LRU policy it is the time of the last access
+ * in {@value #LRU_RESOLUTION_MILLIS} ms units, wrapping around after a few years. Under an LFU policy it packs
+ * the time of the last decrement in minutes (upper 16 bits) with a logarithmic access counter (lower 8 bits) that
+ * loses one for every minute the key stays idle.
+ * <p>
+ * Only the master evicts. Each key it evicts is passed to the eviction listener, which has it deleted on the
+ * replicas, so they hold the same keys whatever their own memory.
+ */
+public class Evictor {
+    private static final long LRU_RESOLUTION_MILLIS = 100;
+    private static final int LFU_INIT_VAL = 5;
+    private static final int LFU_LOG_FACTOR = 10;
+    private static final int LFU_DECAY_MINUTES = 1;
+    // Gives up on a round after looking at this many times the sample size without finding a candidate
+    private static final int MAX_SCAN_FACTOR = 16;
+
+    private final Storage storage;
+    private final ReentrantLock lock = new ReentrantLock();
+    private Iterator<Map.Entry<Key, StorageRecord>> cursor;
+
+    private volatile long maxMemory;
+    private volatile EvictionPolicy policy = EvictionPolicy.NOEVICTION;
+    private volatile int samples = 5;
+    private volatile Consumer<Key> evictionListener = key -> {
+    };
+
+    Evictor(Storage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Evicts keys until the used memory is back under the limit. Returns false if that is not possible, either
+     * because the policy is {@code noeviction} or because there is no candidate left, in which case the caller
+     * must refuse the write.
+     */
+    public boolean freeMemoryIfNeeded() {
+        long limit = maxMemory;
+        if (limit <= 0 || storage.getUsedMemory() <= limit) {
+            return true;
+        }
+        if (policy == EvictionPolicy.NOEVICTION) {
+            return false;
+        }
+        // The cursor is not thread-safe, and writers over the limit would only evict each other's victims anyway
+        lock.lock();
+        try {
+            while (storage.getUsedMemory() > limit) {
+                Map.Entry<Key, StorageRecord> victim = selectVictim();
+                if (victim == null) {
+                    return false;
+                }
+                if (storage.evict(victim.getKey(), victim.getValue())) {
+                    evictionListener.accept(victim.getKey());
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Map.Entry<Key, StorageRecord> selectVictim() {
+        EvictionPolicy policy = this.policy;
+        int samples = this.samples;
+        Map.Entry<Key, StorageRecord> best = null;
+        long bestScore = Long.MIN_VALUE;
+        int sampled = 0;
+        int scanned = 0;
+        while (sampled < samples && scanned < samples * MAX_SCAN_FACTOR) {
+            Map.Entry<Key, StorageRecord> entry = nextEntry();
+            if (entry == null) {
+                break;
+            }
+            scanned++;
+            StorageRecord record = entry.getValue();
+            if (policy.isVolatileOnly() && !record.hasExpiry()) {
+                continue;
+            }
+            sampled++;
+            long score = score(policy, record);
+            if (score > bestScore) {
+                best = entry;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private Map.Entry<Key, StorageRecord> nextEntry() {
+        if (cursor == null || !cursor.hasNext()) {
+            cursor = storage.entryIterator();
+            if (!cursor.hasNext()) {
+                return null;
+            }
+        }
+        return cursor.next();
+    }
+
+    /**
+     * How good an eviction candidate a record is; higher is evicted first.
+     */
+    private long score(EvictionPolicy policy, StorageRecord record) {
+        return switch (policy) {
+            case ALLKEYS_LRU, VOLATILE_LRU -> (lruClock() - record.access) & Integer.MAX_VALUE;
+            case ALLKEYS_LFU, VOLATILE_LFU -> 255 - decayedCounter(record.access);
+            case VOLATILE_TTL -> -record.expiresAt();
+            case ALLKEYS_RANDOM, VOLATILE_RANDOM, NOEVICTION -> ThreadLocalRandom.current().nextLong();
+        };
+    }
+
+    /**
+     * Stamps a record that is about to be stored.
+     */
+    void initAccess(StorageRecord record) {
+        record.access = policy.isLfu() ? (lfuMinutes() << 8) | LFU_INIT_VAL : lruClock();
+    }
+
+    /**
+     * Records a read. The field is only written when the stamp actually changes, so hot keys read from many
+     * threads don't keep bouncing the record's cache line between cores.
+     */
+    void touch(StorageRecord record) {
+        int access = record.access;
+        int updated;
+        if (policy.isLfu()) {
+            updated = (lfuMinutes() << 8) | logIncrement(decayedCounter(access));
+        } else {
+            updated = lruClock();
+        }
+        if (updated != access) {
+            record.access = updated;
+        }
+    }
+
+    private static int lruClock() {
+        return (int) (Clock.millis() / LRU_RESOLUTION_MILLIS) & Integer.MAX_VALUE;
+    }
+
+    private static int lfuMinutes() {
+        return (int) (Clock.millis() / 60_000) & 0xFFFF;
+    }
+
+    private static int decayedCounter(int access) {
+        int lastDecrement = access >>> 8;
+        int counter = access & 0xFF;
+        int now = lfuMinutes();
+        int elapsed = now >= lastDecrement ? now - lastDecrement : 0xFFFF - lastDecrement + now;
+        int periods = elapsed / LFU_DECAY_MINUTES;
+        return periods > counter ? 0 : counter - periods;
+    }
+
+    /**
+     * Increments the 8 bit counter with a probability that falls as it grows, so it saturates after about a
+     * million accesses instead of 255.
+     */
+    private static int logIncrement(int counter) {
+        if (counter == 255) {
+            return counter;
+        }
+        double base = Math.max(0, counter - LFU_INIT_VAL);
+        double probability = 1.0 / (base * LFU_LOG_FACTOR + 1);
+        return ThreadLocalRandom.current().nextDouble() < probability ? counter + 1 : counter;
+    }
+
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    public void setMaxMemory(long maxMemory) {
+        this.maxMemory = maxMemory;
+    }
+
+    public EvictionPolicy getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(EvictionPolicy policy) {
+        this.policy = policy;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    public void setSamples(int samples) {
+        this.samples = samples;
+    }
+
+    /**
+     * Sets what to do with each evicted key, called before the write that made room is carried out.
+     */
+    public void setEvictionListener(Consumer<Key> evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+}
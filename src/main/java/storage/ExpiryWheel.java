@@ -0,0 +1,262 @@
+package storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import util.Clock;
+
+/**
+ * Index of keys with a TTL, used to reclaim expired keys that nobody reads again.
+ * <p>
+ * A hashed timing wheel: {@value #SLOT_COUNT} slots of {@value #TICK_MILLIS} ms each, a key being filed under
+ * the slot of the tick its expiry falls in. Only expiries within one revolution of the cycle go in these slots, so
+ * every entry of a slot is due when the slot is walked. Those further out wait in an overflow level of as many
+ * slots, one per revolution, and are moved down all at once when their revolution starts. Only expiries more than
+ * {@value #SLOT_COUNT} revolutions out, over seven hours, are looked at again before then.
+ * <p>
+ * A key has at most one live entry, referenced from its record and handed on to the record that replaces it. An
+ * expiry moved later keeps the entry where it is; when it comes due and finds the key expiring later, it is filed
+ * again under the new slot. Only an expiry moved earlier than the entry files a new one, leaving the old entry to
+ * be dropped when it comes due. Entries are never removed when a key is deleted either, but dropped once they no
+ * longer belong to the live record.
+ * <p>
+ * A background cycle runs every {@value #CYCLE_INTERVAL_MILLIS} ms and walks the slots that are fully in the
+ * past. Each cycle stops after {@value #CYCLE_BUDGET_MILLIS} ms and carries on from the same slot next time, so
+ * a mass expiry cannot monopolise a core.
+ */
+public class ExpiryWheel {
+    private static final Logger logger = Logger.getLogger(ExpiryWheel.class.getName());
+
+    static final long TICK_MILLIS = 100;
+    private static final int SLOT_COUNT = 512;
+    private static final int SLOT_MASK = SLOT_COUNT - 1;
+    private static final long CYCLE_INTERVAL_MILLIS = 100;
+    private static final long CYCLE_BUDGET_MILLIS = 25;
+
+    /**
+     * The index entry of one key. {@code dueAt} and {@code dropped} are guarded by the entry's monitor, which a
+     * writer holds while deciding whether it can keep the entry, and the cycle while deciding what to do with it.
+     */
+    static final class Entry {
+        private final Key key;
+        private long dueAt;
+        private boolean dropped;
+
+        private Entry(Key key, long dueAt) {
+            this.key = key;
+            this.dueAt = dueAt;
+        }
+    }
+
+    private final Storage storage;
+    private final Queue<Entry>[] slots;
+    // Entries for later revolutions, each list guarded by its own monitor
+    private final List<List<Entry>> overflow = new ArrayList<>(SLOT_COUNT);
+    private volatile long processedTick;
+    // The last revolution moved down from the overflow level, updated under the monitor of its list
+    private volatile long cascadedRevolution;
+
+    private final AtomicLong trackedEntries = new AtomicLong();
+    private volatile long cycles;
+    private volatile long expiredByCycle;
+    private volatile long budgetExhaustedCycles;
+    private volatile long lastCycleMicros;
+    private volatile long totalCycleMicros;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ExpiryWheel(Storage storage) {
+        this.storage = storage;
+        this.slots = new Queue[SLOT_COUNT];
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            slots[i] = new ConcurrentLinkedQueue<>();
+            overflow.add(new ArrayList<>());
+        }
+        this.processedTick = Clock.millis() / TICK_MILLIS - 1;
+        // The slots already cover the rest of the current revolution
+        this.cascadedRevolution = (processedTick + 1) / SLOT_COUNT;
+    }
+
+    /**
+     * Starts the background cycle on a daemon thread.
+     */
+    public void start() {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "active-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::runCycle, CYCLE_INTERVAL_MILLIS, CYCLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gives {@code record}, just stored in place of {@code previous}, an entry: the previous record's if it comes
+     * due no later than the new expiry, a new one otherwise. Safe to call from any thread.
+     */
+    void track(Key key, StorageRecord record, StorageRecord previous) {
+        Entry entry = previous == null ? null : previous.expiryEntry;
+        if (entry != null) {
+            synchronized (entry) {
+                if (!entry.dropped && (!record.hasExpiry() || entry.dueAt <= record.expiresAt())) {
+                    record.expiryEntry = entry;
+                    return;
+                }
+            }
+        }
+        if (record.hasExpiry()) {
+            entry = new Entry(key, record.expiresAt());
+            record.expiryEntry = entry;
+            trackedEntries.incrementAndGet();
+            file(entry, processedTick + 1);
+        }
+    }
+
+    /**
+     * Files an entry under the slot its expiry falls in, or under {@code minTick} if that is later. An expiry more
+     * than a revolution ahead of the cycle goes to the overflow level instead.
+     */
+    private void file(Entry entry, long minTick) {
+        // A slot that has already been walked would only come round again a revolution later
+        long tick = Math.max(entry.dueAt / TICK_MILLIS, minTick);
+        if (tick - processedTick > SLOT_COUNT) {
+            long revolution = tick / SLOT_COUNT;
+            List<Entry> pending = overflow.get((int) (revolution & SLOT_MASK));
+            synchronized (pending) {
+                // Otherwise the cycle has reached that revolution meanwhile, and the slots cover it
+                if (revolution > cascadedRevolution) {
+                    pending.add(entry);
+                    return;
+                }
+            }
+        }
+        slots[(int) (tick & SLOT_MASK)].add(entry);
+    }
+
+    /**
+     * Moves the entries of a revolution that is about to start from the overflow level into the slots, leaving
+     * those of revolutions further out.
+     */
+    private void cascade(long revolution) {
+        List<Entry> pending = overflow.get((int) (revolution & SLOT_MASK));
+        List<Entry> due = new ArrayList<>();
+        synchronized (pending) {
+            cascadedRevolution = revolution;
+            // Only this thread changes dueAt, so it can be read here without the entry's monitor
+            pending.removeIf(entry -> entry.dueAt / TICK_MILLIS / SLOT_COUNT <= revolution && due.add(entry));
+        }
+        for (Entry entry : due) {
+            long tick = Math.max(entry.dueAt / TICK_MILLIS, revolution * SLOT_COUNT);
+            slots[(int) (tick & SLOT_MASK)].add(entry);
+        }
+    }
+
+    void runCycle() {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(CYCLE_BUDGET_MILLIS);
+        long currentTick = Clock.millis() / TICK_MILLIS;
+        boolean exhausted = false;
+        try {
+            // Only ticks entirely in the past, so every entry of a slot is already due
+            while (processedTick < currentTick - 1) {
+                long tick = processedTick + 1;
+                if ((tick & SLOT_MASK) == 0 && tick / SLOT_COUNT > cascadedRevolution) {
+                    cascade(tick / SLOT_COUNT);
+                }
+                if (!processSlot(tick, deadline)) {
+                    exhausted = true;
+                    break;
+                }
+                processedTick = tick;
+            }
+        } catch (RuntimeException e) {
+            logger.severe("Active expiry cycle failed: " + e.getMessage());
+        }
+
+        long micros = (System.nanoTime() - start) / 1000;
+        cycles++;
+        lastCycleMicros = micros;
+        totalCycleMicros += micros;
+        if (exhausted) {
+            budgetExhaustedCycles++;
+        }
+    }
+
+    /**
+     * Expires the due entries of one slot. Returns false if the time budget ran out before the slot was finished.
+     */
+    private boolean processSlot(long tick, long deadline) {
+        Queue<Entry> slot = slots[(int) (tick & SLOT_MASK)];
+        int processed = 0;
+        Entry entry;
+        while ((entry = slot.poll()) != null) {
+            fire(entry, tick);
+            if ((++processed & 63) == 0 && System.nanoTime() > deadline) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Expires the key of a due entry, files the entry again if the key now expires later, or drops the entry if
+     * it no longer belongs to the live record.
+     */
+    private void fire(Entry entry, long tick) {
+        synchronized (entry) {
+            while (true) {
+                StorageRecord record = storage.peek(entry.key);
+                if (record == null || record.expiryEntry != entry || !record.hasExpiry()) {
+                    // A writer holding a record that still refers to it will see the flag and file a new entry
+                    drop(entry);
+                    return;
+                }
+                if (!record.isExpired(Clock.millis())) {
+                    entry.dueAt = record.expiresAt();
+                    file(entry, tick + 1);
+                    return;
+                }
+                if (storage.expireIfDue(entry.key, record)) {
+                    expiredByCycle++;
+                    drop(entry);
+                    return;
+                }
+                // Lost a race with another write to the key; look again
+            }
+        }
+    }
+
+    private void drop(Entry entry) {
+        entry.dropped = true;
+        trackedEntries.decrementAndGet();
+    }
+
+    public long getTrackedEntries() {
+        return trackedEntries.get();
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    public long getExpiredByCycle() {
+        return expiredByCycle;
+    }
+
+    public long getBudgetExhaustedCycles() {
+        return budgetExhaustedCycles;
+    }
+
+    public long getLastCycleMicros() {
+        return lastCycleMicros;
+    }
+
+    public long getTotalCycleMicros() {
+        return totalCycleMicros;
+    }
+}
@@ -0,0 +1,52 @@
+package storage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A key as the raw bytes the client sent. Keys are binary-safe like in Redis and are never decoded on the hot
+ * path; the hash is computed once, since every lookup and every rehash of the keyspace needs it.
+ */
+public final class Key {
+    private final byte[] bytes;
+    private final int hash;
+
+    public Key(byte[] bytes) {
+        this.bytes = bytes;
+        this.hash = Arrays.hashCode(bytes);
+    }
+
+    public static Key of(String key) {
+        return new Key(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Copies {@code length} bytes at {@code offset} out of {@code buffer}, which is usually a connection's read
+     * buffer and about to be reused.
+     */
+    public static Key of(byte[] buffer, int offset, int length) {
+        return new Key(Arrays.copyOfRange(buffer, offset, offset + length));
+    }
+
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof Key other && hash == other.hash && Arrays.equals(bytes, other.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
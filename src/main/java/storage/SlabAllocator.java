@@ -0,0 +1,194 @@
+package storage;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import protocol.ReplyBuffer;
+
+/**
+ * Off-heap memory for values, carved out of {@value #SLAB_BYTES} byte slabs.
+ * <p>
+ * Like memcached, each size class owns its slabs and cuts them into equal slots, the classes growing by a factor of
+ * 1.25 from {@value #MIN_SLOT_BYTES} bytes up to a whole slab. A value goes into the smallest class it fits, so the
+ * waste per value is bounded and freed slots are reused as is, without fragmentation. Slabs are never handed back;
+ * a class that has grown keeps its memory for later values of that size.
+ * <p>
+ * A value is addressed by a {@code long} handle packing its class and slot number. Each slot starts with the value
+ * length, followed by the bytes. Freeing only recycles the slot, so reading through a stale handle never faults,
+ * it just sees whatever was written there since; callers validate such reads themselves.
+ */
+public class SlabAllocator {
+    static final int SLAB_BYTES = 1 << 20;
+    private static final int MIN_SLOT_BYTES = 16;
+    private static final int SLOT_HEADER_BYTES = Integer.BYTES;
+    private static final int CLASS_SHIFT = 40;
+    private static final long SLOT_MASK = (1L << CLASS_SHIFT) - 1;
+
+    private final Arena arena = Arena.ofShared();
+    private final SizeClass[] classes;
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    private static final class SizeClass {
+        final int slotBytes;
+        final int slotsPerSlab;
+        final ReentrantLock lock = new ReentrantLock();
+        volatile MemorySegment[] slabs = new MemorySegment[0];
+        int[] freeSlots = new int[64];
+        int freeCount;
+        int nextSlot;
+
+        SizeClass(int slotBytes) {
+            this.slotBytes = slotBytes;
+            this.slotsPerSlab = SLAB_BYTES / slotBytes;
+        }
+    }
+
+    public SlabAllocator() {
+        int[] sizes = new int[64];
+        int count = 0;
+        for (int size = MIN_SLOT_BYTES; size < SLAB_BYTES; size = align((int) (size * 1.25))) {
+            sizes[count++] = size;
+        }
+        sizes[count++] = SLAB_BYTES;
+        this.classes = new SizeClass[count];
+        for (int i = 0; i < count; i++) {
+            classes[i] = new SizeClass(sizes[i]);
+        }
+    }
+
+    /**
+     * Largest value that fits a slot. Bigger ones have to be kept on the heap.
+     */
+    public int maxValueBytes() {
+        return SLAB_BYTES - SLOT_HEADER_BYTES;
+    }
+
+    /**
+     * Copies {@code length} bytes into a newly allocated slot and returns its handle.
+     */
+    public long store(byte[] value, int offset, int length) {
+        int classIndex = classFor(length + SLOT_HEADER_BYTES);
+        SizeClass sizeClass = classes[classIndex];
+        int slot = allocate(sizeClass);
+        long handle = ((long) classIndex << CLASS_SHIFT) | slot;
+        MemorySegment slab = slab(sizeClass, slot);
+        long slotOffset = slotOffset(sizeClass, slot);
+        slab.set(ValueLayout.JAVA_INT, slotOffset, length);
+        MemorySegment.copy(value, offset, slab, ValueLayout.JAVA_BYTE, slotOffset + SLOT_HEADER_BYTES, length);
+        usedBytes.addAndGet(sizeClass.slotBytes);
+        return handle;
+    }
+
+    public void free(long handle) {
+        SizeClass sizeClass = classes[(int) (handle >>> CLASS_SHIFT)];
+        sizeClass.lock.lock();
+        try {
+            if (sizeClass.freeCount == sizeClass.freeSlots.length) {
+                sizeClass.freeSlots = Arrays.copyOf(sizeClass.freeSlots, sizeClass.freeCount * 2);
+            }
+            sizeClass.freeSlots[sizeClass.freeCount++] = (int) (handle & SLOT_MASK);
+        } finally {
+            sizeClass.lock.unlock();
+        }
+        usedBytes.addAndGet(-sizeClass.slotBytes);
+    }
+
+    public byte[] read(long handle) {
+        SizeClass sizeClass = classes[(int) (handle >>> CLASS_SHIFT)];
+        int slot = (int) (handle & SLOT_MASK);
+        MemorySegment slab = slab(sizeClass, slot);
+        long slotOffset = slotOffset(sizeClass, slot);
+        byte[] value = new byte[length(sizeClass, slab, slotOffset)];
+        MemorySegment.copy(slab, ValueLayout.JAVA_BYTE, slotOffset + SLOT_HEADER_BYTES, value, 0, value.length);
+        return value;
+    }
+
+    /**
+     * Encodes the value as a bulk string straight into {@code reply}, without an intermediate array.
+     */
+    public void writeBulkString(long handle, ReplyBuffer reply) {
+        SizeClass sizeClass = classes[(int) (handle >>> CLASS_SHIFT)];
+        int slot = (int) (handle & SLOT_MASK);
+        MemorySegment slab = slab(sizeClass, slot);
+        long slotOffset = slotOffset(sizeClass, slot);
+        reply.writeBulkString(slab, slotOffset + SLOT_HEADER_BYTES, length(sizeClass, slab, slotOffset));
+    }
+
+    /**
+     * Bytes taken by the slot behind {@code handle}, header and padding included.
+     */
+    public int slotBytes(long handle) {
+        return classes[(int) (handle >>> CLASS_SHIFT)].slotBytes;
+    }
+
+    /**
+     * Bytes in slots currently holding a value.
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * Bytes reserved from the operating system for slabs.
+     */
+    public long getReservedBytes() {
+        long reserved = 0;
+        for (SizeClass sizeClass : classes) {
+            reserved += (long) sizeClass.slabs.length * SLAB_BYTES;
+        }
+        return reserved;
+    }
+
+    private int allocate(SizeClass sizeClass) {
+        sizeClass.lock.lock();
+        try {
+            if (sizeClass.freeCount > 0) {
+                return sizeClass.freeSlots[--sizeClass.freeCount];
+            }
+            int slot = sizeClass.nextSlot;
+            if (slot == sizeClass.slabs.length * sizeClass.slotsPerSlab) {
+                MemorySegment[] slabs = Arrays.copyOf(sizeClass.slabs, sizeClass.slabs.length + 1);
+                slabs[slabs.length - 1] = arena.allocate(SLAB_BYTES, Long.BYTES);
+                sizeClass.slabs = slabs;
+            }
+            sizeClass.nextSlot = slot + 1;
+            return slot;
+        } finally {
+            sizeClass.lock.unlock();
+        }
+    }
+
+    private int classFor(int bytes) {
+        // Few enough classes that a linear scan beats anything cleverer
+        for (int i = 0; i < classes.length; i++) {
+            if (classes[i].slotBytes >= bytes) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Value too large for a slab: " + bytes + " bytes");
+    }
+
+    private static MemorySegment slab(SizeClass sizeClass, int slot) {
+        return sizeClass.slabs[slot / sizeClass.slotsPerSlab];
+    }
+
+    private static long slotOffset(SizeClass sizeClass, int slot) {
+        return (long) (slot % sizeClass.slotsPerSlab) * sizeClass.slotBytes;
+    }
+
+    /**
+     * The stored length, clamped to the slot so that a torn read of a recycled slot stays in bounds.
+     */
+    private static int length(SizeClass sizeClass, MemorySegment slab, long slotOffset) {
+        int length = slab.get(ValueLayout.JAVA_INT, slotOffset);
+        return Math.clamp(length, 0, sizeClass.slotBytes - SLOT_HEADER_BYTES);
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+}
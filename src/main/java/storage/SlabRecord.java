@@ -0,0 +1,15 @@
+package storage;
+
+import protocol.ValueType;
+
+/**
+ * A record whose value is held by the {@link SlabAllocator}. Only the handle stays on the heap.
+ */
+final class SlabRecord extends StorageRecord {
+    final long handle;
+
+    SlabRecord(ValueType type, long handle, long expiresAt) {
+        super(type, null, expiresAt);
+        this.handle = handle;
+    }
+}
@@ -0,0 +1,176 @@
+package storage;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import protocol.ValueType;
+
+/**
+ * A point-in-time view of the keyspace that doesn't copy it up front, for saving it while writes go on.
+ * <p>
+ * While the snapshot is open, a write first preserves the value the key had, or the fact that it had none, unless
+ * the key already has one preserved or has been visited. Walking the snapshot then reads the live map and takes the
+ * preserved value instead wherever there is one, so only the keys written during the walk are ever copied, and only
+ * their old record, not the value bytes. Off-heap slots released while the snapshot is open are only freed once it
+ * and every other snapshot open at the time have closed, so the preserved records stay readable.
+ * <p>
+ * Obtained from {@link Storage#openSnapshot()}, and must be closed.
+ */
+public class Snapshot implements AutoCloseable {
+    // Markers in the preserved map: the key did not exist when the snapshot was taken, or the walk is past it
+    private static final StorageRecord ABSENT = new StorageRecord(ValueType.STRING, new byte[0]);
+    private static final StorageRecord VISITED = new StorageRecord(ValueType.STRING, new byte[0]);
+
+    private final Storage storage;
+    private final Storage.Dataset dataset;
+    private final ConcurrentHashMap<Key, StorageRecord> preserved = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<DeferredFree> deferredFrees = new ConcurrentLinkedQueue<>();
+    private final LongAdder copiedKeys = new LongAdder();
+    private long takenAt;
+    private long keyCount;
+    private long expiringKeyCount;
+    private long dirty;
+
+    Snapshot(Storage storage, Storage.Dataset dataset) {
+        this.storage = storage;
+        this.dataset = dataset;
+    }
+
+    /**
+     * The dataset the snapshot was taken of, which it keeps reading if another is swapped in meanwhile.
+     */
+    Storage.Dataset getDataset() {
+        return dataset;
+    }
+
+    /**
+     * Records the state of the keyspace once no write that bypassed the snapshot is left in flight.
+     */
+    void taken(long takenAt, long keyCount, long expiringKeyCount, long dirty) {
+        this.takenAt = takenAt;
+        this.keyCount = keyCount;
+        this.expiringKeyCount = expiringKeyCount;
+        this.dirty = dirty;
+    }
+
+    /**
+     * Called by a write of the snapshot's phase before it changes {@code key}, with the value the key has then.
+     */
+    void preserve(Key key, StorageRecord current) {
+        if (preserved.putIfAbsent(key, current == null ? ABSENT : current) == null && current != null) {
+            copiedKeys.increment();
+        }
+    }
+
+    /**
+     * Hands a released slot over to {@code snapshots}, to be freed when the last of them is released.
+     */
+    static void deferFree(Snapshot[] snapshots, SlabRecord record) {
+        DeferredFree deferred = new DeferredFree(record, snapshots.length);
+        for (Snapshot snapshot : snapshots) {
+            snapshot.deferredFrees.add(deferred);
+        }
+    }
+
+    /**
+     * Frees the slots released while the snapshot was open that no other snapshot still holds. Called once no
+     * write can defer one any more.
+     */
+    void release(SlabAllocator slabs) {
+        DeferredFree deferred;
+        while ((deferred = deferredFrees.poll()) != null) {
+            if (deferred.holders.decrementAndGet() == 0) {
+                slabs.free(deferred.record.handle);
+            }
+        }
+        preserved.clear();
+    }
+
+    /**
+     * Passes every key that existed and had not expired when the snapshot was taken to {@code action}, with its
+     * value at that time. Off-heap values are handed over as heap copies. Not thread-safe; a snapshot is walked
+     * once, by one thread.
+     */
+    public void forEach(BiConsumer<Key, StorageRecord> action) {
+        Iterator<Map.Entry<Key, StorageRecord>> entries = dataset.entryIterator();
+        while (entries.hasNext()) {
+            Map.Entry<Key, StorageRecord> entry = entries.next();
+            Key key = entry.getKey();
+            // The live value read above is the snapshot's one if no write has preserved the key before this claim
+            StorageRecord prior = preserved.putIfAbsent(key, VISITED);
+            if (prior == null) {
+                accept(key, entry.getValue(), action);
+            } else if (prior != ABSENT && prior != VISITED) {
+                preserved.put(key, VISITED);
+                accept(key, prior, action);
+            }
+        }
+        // Keys that were deleted before the walk got to them
+        preserved.forEach((key, record) -> {
+            if (record != ABSENT && record != VISITED) {
+                accept(key, record, action);
+            }
+        });
+    }
+
+    private void accept(Key key, StorageRecord record, BiConsumer<Key, StorageRecord> action) {
+        if (record.isExpired(takenAt)) {
+            return;
+        }
+        if (record instanceof SlabRecord slabRecord) {
+            record = new StorageRecord(record.type(), storage.getSlabs().read(slabRecord.handle), record.expiresAt());
+        }
+        action.accept(key, record);
+    }
+
+    /**
+     * Epoch milliseconds at which the snapshot was taken.
+     */
+    public long getTakenAt() {
+        return takenAt;
+    }
+
+    /**
+     * Number of keys when the snapshot was taken, expired ones included.
+     */
+    public long getKeyCount() {
+        return keyCount;
+    }
+
+    /**
+     * Number of keys with an expiry when the snapshot was taken.
+     */
+    public long getExpiringKeyCount() {
+        return expiringKeyCount;
+    }
+
+    /**
+     * Changes made to the keyspace before the snapshot was taken, see {@link Storage#getDirty()}.
+     */
+    public long getDirty() {
+        return dirty;
+    }
+
+    /**
+     * Keys whose old value had to be preserved because they were written while the snapshot was open.
+     */
+    public long getCopiedKeys() {
+        return copiedKeys.sum();
+    }
+
+    @Override
+    public void close() {
+        storage.closeSnapshot(this);
+    }
+
+    private record DeferredFree(SlabRecord record, AtomicInteger holders) {
+        DeferredFree(SlabRecord record, int holders) {
+            this(record, new AtomicInteger(holders));
+        }
+    }
+}
@@ -1,67 +1,631 @@
 package storage;
 
-import java.time.Instant;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
+import protocol.ReplyBuffer;
 import protocol.ValueType;
+import util.Clock;
 
+/**
+ * The keyspace. Reads never lock and writes go straight to the {@link ConcurrentHashMap}, so GET and SET scale
+ * with the number of cores. Expired keys are dropped lazily with a conditional remove, which can never delete a
+ * value written after the expired one was read, and actively by the {@link ExpiryWheel}.
+ * <p>
+ * Memory used by the entries is estimated and tracked as they come and go, so checking it against
+ * {@code maxmemory} in the {@link Evictor} doesn't need to walk the keyspace.
+ * <p>
+ * With the {@link StorageEngine#OFFHEAP off-heap} engine values are copied into a {@link SlabAllocator} and the
+ * map only holds their handles, which takes the value arrays out of the garbage collector's way. A slot is freed
+ * as soon as its record leaves the map, possibly while another thread is still copying out of it, so reads go
+ * through {@link #getValue} or {@link #writeValue}, which check afterwards that the record was still mapped and
+ * retry otherwise.
+ * <p>
+ * Every write goes through a {@link WritePhase}, which lets {@link #openSnapshot()} take a point-in-time
+ * {@link Snapshot} for saving without stopping writes.
+ * <p>
+ * The map and its counters make up a {@link Dataset}. A full resync loads a new one off to the side while the old
+ * one keeps serving, then {@link #swap swaps} it in with a single reference flip; the old one is freed in the
+ * background rather than key by key on the way in.
+ */
 public class Storage {
     private static final Logger logger = Logger.getLogger(Storage.class.getName());
-    private final Map<String, StorageRecord> store;
-    private final Object lock = new Object();
+    // Map node and table slot, Key and record objects, and the two array headers, with compressed oops
+    private static final long ENTRY_OVERHEAD = 128;
+
+    private final ExpiryWheel expiryWheel;
+    private final Evictor evictor;
+    private final StorageEngine engine;
+    private final SlabAllocator slabs;
+    private final LongAdder expiredKeys = new LongAdder();
+    private final LongAdder evictedKeys = new LongAdder();
+    private final LongAdder dirty = new LongAdder();
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+    private volatile WritePhase phase = new WritePhase();
+    private volatile Dataset dataset = new Dataset();
+
+    /**
+     * A keyspace with its own memory and expiry counts, either the live one or one being loaded.
+     */
+    public static final class Dataset {
+        private final ConcurrentHashMap<Key, StorageRecord> store = new ConcurrentHashMap<>();
+        private final LongAdder usedMemory = new LongAdder();
+        private final LongAdder expiringKeys = new LongAdder();
+
+        private Dataset() {
+        }
+
+        public int size() {
+            return store.size();
+        }
+
+        Iterator<Map.Entry<Key, StorageRecord>> entryIterator() {
+            return store.entrySet().iterator();
+        }
+    }
 
     public Storage() {
-        this.store = new ConcurrentHashMap<>();
-    }
-
-    public void set(String key, byte[] value, ValueType type, Instant expiry) {
-        synchronized(lock) {
-            logger.info(Thread.currentThread().getName() + " Setting key: " + key + " with value: " + new String(value));
-            logger.info("Current store size before set: " + store.size());
-            store.put(key, new StorageRecord(type, value, expiry));
-            logger.info("Current store size after set: " + store.size());
-            logger.info("Store contents after set: " + store);
-        }
-    }
-
-    public StorageRecord get(String key) {
-        synchronized(lock) {
-            logger.info(Thread.currentThread().getName() + " Getting key: " + key);
-            logger.info("Current store size: " + store.size());
-            StorageRecord record = store.get(key);
-            logger.info("Found record: " + (record != null ? new String(record.data()) : "null"));
-            if (record != null && record.expiry() != null) {
-                Instant now = Instant.now();
-                if (now.isAfter(record.expiry())) {
-                    store.remove(key);
-                    return null;
+        this(StorageEngine.HEAP);
+    }
+
+    public Storage(StorageEngine engine) {
+        this.engine = engine;
+        this.slabs = engine == StorageEngine.OFFHEAP ? new SlabAllocator() : null;
+        this.expiryWheel = new ExpiryWheel(this);
+        this.evictor = new Evictor(this);
+    }
+
+    /**
+     * Stores a value. {@code expiresAt} is in epoch milliseconds, or {@link StorageRecord#NO_EXPIRY}.
+     */
+    public void set(Key key, byte[] value, ValueType type, long expiresAt) {
+        put(key, slabs == null
+                ? new StorageRecord(type, value, expiresAt)
+                : createRecord(type, value, 0, value.length, expiresAt));
+    }
+
+    /**
+     * Stores a copy of {@code length} bytes of {@code buffer}, typically the connection's read buffer.
+     */
+    public void set(Key key, byte[] buffer, int offset, int length, ValueType type, long expiresAt) {
+        put(key, createRecord(type, buffer, offset, length, expiresAt));
+    }
+
+    private StorageRecord createRecord(ValueType type, byte[] buffer, int offset, int length, long expiresAt) {
+        if (slabs != null && length <= slabs.maxValueBytes()) {
+            return new SlabRecord(type, slabs.store(buffer, offset, length), expiresAt);
+        }
+        return new StorageRecord(type, Arrays.copyOfRange(buffer, offset, offset + length), expiresAt);
+    }
+
+    private void put(Key key, StorageRecord record) {
+        evictor.initAccess(record);
+        WritePhase phase = enterPhase();
+        Dataset dataset = this.dataset;
+        StorageRecord previous;
+        try {
+            preserve(phase, dataset, key);
+            previous = dataset.store.put(key, record);
+            dirty.increment();
+            added(dataset, key, record);
+            if (previous != null) {
+                released(phase, dataset, key, previous);
+            }
+        } finally {
+            phase.exit();
+        }
+        expiryWheel.track(key, record, previous);
+    }
+
+    public StorageRecord get(Key key) {
+        StorageRecord record = dataset.store.get(key);
+        if (record == null) {
+            return null;
+        }
+        if (record.isExpired(Clock.millis())) {
+            // Only remove the record we looked at; a concurrent SET may already have replaced it
+            if (remove(key, record)) {
+                expiredKeys.increment();
+            }
+            return null;
+        }
+        evictor.touch(record);
+        return record;
+    }
+
+    /**
+     * The value of a key, or null if it does not exist.
+     */
+    public byte[] getValue(Key key) {
+        while (true) {
+            StorageRecord record = get(key);
+            if (!(record instanceof SlabRecord slabRecord)) {
+                return record == null ? null : record.data();
+            }
+            byte[] value = slabs.read(slabRecord.handle);
+            if (stillMapped(key, record)) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Writes the value of a key to {@code reply} as a bulk string, copying off-heap values straight from their
+     * slab. Returns false, having written nothing, if the key does not exist.
+     */
+    public boolean writeValue(Key key, ReplyBuffer reply) {
+        while (true) {
+            StorageRecord record = get(key);
+            if (!(record instanceof SlabRecord slabRecord)) {
+                if (record == null) {
+                    return false;
                 }
+                reply.writeBulkString(record.data());
+                return true;
             }
-            return record;
+            int mark = reply.mark();
+            slabs.writeBulkString(slabRecord.handle, reply);
+            if (stillMapped(key, record)) {
+                return true;
+            }
+            reply.rewind(mark);
         }
     }
 
-    public Map<String, StorageRecord> getStore() {
-        Map<String, StorageRecord> copy = new ConcurrentHashMap<>();
-        store.forEach((k, v) -> copy.put(k, new StorageRecord(v.type(), v.data(), v.expiry())));
-        return copy;
+    /**
+     * Whether {@code record} is still the mapped value of {@code key}, so that its slot cannot have been freed and
+     * reused while it was being copied. Records are never put back once replaced, so there is no ABA. A record of
+     * a dataset swapped out meanwhile fails the check, and the read is retried on the new one.
+     */
+    private boolean stillMapped(Key key, StorageRecord record) {
+        // Keep the plain reads of the copy from being reordered after the check
+        VarHandle.loadLoadFence();
+        return dataset.store.get(key) == record;
     }
 
-    public Set<String> getAllKeys() {
-        return store.keySet();
+    /**
+     * Sets the expiry of an existing key. An expiry in the past deletes the key, as in Redis.
+     * Returns false if the key does not exist.
+     */
+    public boolean expire(Key key, long expiresAt) {
+        while (true) {
+            StorageRecord record = get(key);
+            if (record == null) {
+                return false;
+            }
+            if (expiresAt <= Clock.millis()) {
+                if (remove(key, record)) {
+                    return true;
+                }
+            } else {
+                StorageRecord updated = withExpiry(record, expiresAt);
+                if (replace(key, record, updated)) {
+                    expiryWheel.track(key, updated, record);
+                    return true;
+                }
+            }
+            // Lost a race with another write to the key; look again
+        }
+    }
+
+    /**
+     * Removes the expiry of a key. Returns false if the key does not exist or has no expiry.
+     */
+    public boolean persist(Key key) {
+        StorageRecord record = get(key);
+        if (record == null || !record.hasExpiry()) {
+            return false;
+        }
+        StorageRecord updated = withExpiry(record, StorageRecord.NO_EXPIRY);
+        if (!replace(key, record, updated)) {
+            return false;
+        }
+        expiryWheel.track(key, updated, record);
+        return true;
     }
 
-    public void setStore(Map<String, StorageRecord> store) {
-        synchronized(lock) {
-            logger.info(Thread.currentThread().getName() + " Setting store: " + store);
-            logger.info("Current store size before update: " + this.store.size());
-            this.store.clear();  // First clear
-            this.store.putAll(store);  // Then add all
-            logger.info("Current store size after update: " + this.store.size());
-            logger.info("Store contents after update: " + this.store);
+    /**
+     * Remaining time to live in milliseconds, -1 if the key has no expiry and -2 if it does not exist.
+     */
+    public long ttlMillis(Key key) {
+        StorageRecord record = get(key);
+        if (record == null) {
+            return -2;
+        }
+        if (!record.hasExpiry()) {
+            return -1;
         }
+        return Math.max(0, record.expiresAt() - Clock.millis());
+    }
+
+    /**
+     * The live record of a key, expired or not, for the {@link ExpiryWheel} to check its entry against.
+     */
+    StorageRecord peek(Key key) {
+        return dataset.store.get(key);
+    }
+
+    /**
+     * Called by the {@link ExpiryWheel} for an expired record it found through {@link #peek}. Returns false if the
+     * key has been written since.
+     */
+    boolean expireIfDue(Key key, StorageRecord record) {
+        if (remove(key, record)) {
+            expiredKeys.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes a key. Returns false if it does not exist.
+     */
+    public boolean delete(Key key) {
+        while (true) {
+            StorageRecord record = get(key);
+            if (record == null) {
+                return false;
+            }
+            if (remove(key, record)) {
+                return true;
+            }
+            // Lost a race with another write to the key; look again
+        }
+    }
+
+    /**
+     * Called by the {@link Evictor} for the key it picked. Returns false if that key has been written since.
+     */
+    boolean evict(Key key, StorageRecord record) {
+        if (remove(key, record)) {
+            evictedKeys.increment();
+            return true;
+        }
+        return false;
+    }
+
+    Iterator<Map.Entry<Key, StorageRecord>> entryIterator() {
+        return dataset.entryIterator();
+    }
+
+    private boolean remove(Key key, StorageRecord record) {
+        WritePhase phase = enterPhase();
+        Dataset dataset = this.dataset;
+        try {
+            preserve(phase, dataset, key);
+            if (dataset.store.remove(key, record)) {
+                dirty.increment();
+                released(phase, dataset, key, record);
+                return true;
+            }
+            return false;
+        } finally {
+            phase.exit();
+        }
+    }
+
+    /**
+     * Replaces the record of a key with a copy that only differs in its expiry, if it is still mapped.
+     */
+    private boolean replace(Key key, StorageRecord record, StorageRecord updated) {
+        WritePhase phase = enterPhase();
+        Dataset dataset = this.dataset;
+        try {
+            preserve(phase, dataset, key);
+            if (!dataset.store.replace(key, record, updated)) {
+                return false;
+            }
+            dirty.increment();
+            if (record.hasExpiry() != updated.hasExpiry()) {
+                dataset.expiringKeys.add(updated.hasExpiry() ? 1 : -1);
+            }
+            return true;
+        } finally {
+            phase.exit();
+        }
+    }
+
+    /**
+     * Enters the current write phase. The dataset to write to must be read after this, as the phase is what a
+     * {@link #swap} waits on before freeing the old one. The caller must {@link WritePhase#exit() exit} the
+     * returned phase.
+     */
+    private WritePhase enterPhase() {
+        while (true) {
+            WritePhase phase = this.phase;
+            phase.enter();
+            if (phase == this.phase) {
+                phase.awaitOpen();
+                return phase;
+            }
+            // A snapshot was opened or closed meanwhile; this phase may already be considered drained
+            phase.exit();
+        }
+    }
+
+    /**
+     * Preserves the value of {@code key} for each open snapshot of {@code dataset}, before it is changed. The value
+     * is read once inside the phase, as one read before it might predate a write that the snapshot never saw.
+     */
+    private void preserve(WritePhase phase, Dataset dataset, Key key) {
+        Snapshot[] snapshots = phase.snapshots();
+        if (snapshots.length > 0) {
+            StorageRecord current = dataset.store.get(key);
+            for (Snapshot snapshot : snapshots) {
+                if (snapshot.getDataset() == dataset) {
+                    snapshot.preserve(key, current);
+                }
+            }
+        }
+    }
+
+    private void added(Dataset dataset, Key key, StorageRecord record) {
+        dataset.usedMemory.add(sizeOf(key, record));
+        if (record.hasExpiry()) {
+            dataset.expiringKeys.increment();
+        }
+    }
+
+    /**
+     * Accounts for a record that has left the map and frees its slot.
+     */
+    private void released(WritePhase phase, Dataset dataset, Key key, StorageRecord record) {
+        dataset.usedMemory.add(-sizeOf(key, record));
+        if (record.hasExpiry()) {
+            dataset.expiringKeys.decrement();
+        }
+        if (record instanceof SlabRecord slabRecord) {
+            freeSlot(phase, slabRecord);
+        }
+    }
+
+    /**
+     * Frees the slot of a record no longer mapped, or has the open snapshots free it once they are all closed,
+     * since they may still have to read it.
+     */
+    private void freeSlot(WritePhase phase, SlabRecord record) {
+        if (phase.snapshots().length > 0) {
+            Snapshot.deferFree(phase.snapshots(), record);
+        } else {
+            slabs.free(record.handle);
+        }
+    }
+
+    /**
+     * A new, empty dataset to {@link #load} keys into while the current one keeps serving.
+     */
+    public Dataset newDataset() {
+        return new Dataset();
+    }
+
+    /**
+     * Stores a value in a dataset that is not live yet. Safe to call from several threads at once.
+     */
+    public void load(Dataset dataset, Key key, byte[] value, ValueType type, long expiresAt) {
+        StorageRecord record = slabs == null
+                ? new StorageRecord(type, value, expiresAt)
+                : createRecord(type, value, 0, value.length, expiresAt);
+        evictor.initAccess(record);
+        StorageRecord previous = dataset.store.put(key, record);
+        added(dataset, key, record);
+        if (previous != null) {
+            // Nothing can have read it yet
+            dataset.usedMemory.add(-sizeOf(key, previous));
+            if (previous.hasExpiry()) {
+                dataset.expiringKeys.decrement();
+            }
+            if (previous instanceof SlabRecord slabRecord) {
+                slabs.free(slabRecord.handle);
+            }
+        }
+        dirty.increment();
+        // Due entries that fire before the swap find nothing and leave the key to expire on access
+        expiryWheel.track(key, record, previous);
+    }
+
+    /**
+     * Makes a loaded dataset the live one. Readers move over with the flip of one reference; writes still in flight
+     * on the old dataset are waited for, and then the old dataset is freed in the background. Open snapshots keep
+     * reading the dataset they were taken of.
+     */
+    public void swap(Dataset loaded) {
+        Dataset old;
+        snapshotLock.lock();
+        try {
+            old = dataset;
+            dataset = loaded;
+            WritePhase previous = phase;
+            WritePhase current = previous.next();
+            phase = current;
+            // From here on no write can touch the old dataset
+            previous.awaitDrained();
+            current.open();
+        } finally {
+            snapshotLock.unlock();
+        }
+        logger.info("Swapped in a dataset of " + loaded.size() + " keys, freeing the old one of " + old.size());
+        if (slabs != null) {
+            Thread.ofPlatform().daemon().name("lazyfree").start(() -> freeSlots(old));
+        }
+        // With the heap engine dropping the reference is all it takes, the collector frees the rest
+    }
+
+    /**
+     * Frees a dataset that failed to load and was never swapped in.
+     */
+    public void discard(Dataset dataset) {
+        if (slabs != null) {
+            dataset.store.values().forEach(record -> {
+                if (record instanceof SlabRecord slabRecord) {
+                    slabs.free(slabRecord.handle);
+                }
+            });
+        }
+        dataset.store.clear();
+    }
+
+    private void freeSlots(Dataset old) {
+        old.store.values().forEach(record -> {
+            if (record instanceof SlabRecord slabRecord) {
+                WritePhase phase = enterPhase();
+                try {
+                    freeSlot(phase, slabRecord);
+                } finally {
+                    phase.exit();
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes a point-in-time snapshot of the keyspace. Writes carry on while it is open, preserving the values it
+     * needs as they go. Several snapshots can be open at once, each write then preserving values for all of them.
+     */
+    public Snapshot openSnapshot() {
+        snapshotLock.lock();
+        try {
+            Snapshot snapshot = new Snapshot(this, dataset);
+            WritePhase previous = phase;
+            WritePhase current = previous.with(snapshot);
+            phase = current;
+            // Writes that don't know about the snapshot must be done before it is taken; new ones wait for this
+            previous.awaitDrained();
+            snapshot.taken(Clock.currentMillis(), dataset.store.size(), dataset.expiringKeys.sum(), dirty.sum());
+            current.open();
+            return snapshot;
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    void closeSnapshot(Snapshot snapshot) {
+        snapshotLock.lock();
+        try {
+            if (!phase.includes(snapshot)) {
+                return;
+            }
+            WritePhase previous = phase;
+            WritePhase current = previous.without(snapshot);
+            phase = current;
+            previous.awaitDrained();
+            current.open();
+            snapshot.release(slabs);
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    /**
+     * A copy of {@code record} with another expiry. An off-heap value moves to the copy rather than being
+     * duplicated.
+     */
+    private static StorageRecord withExpiry(StorageRecord record, long expiresAt) {
+        StorageRecord updated = record instanceof SlabRecord slabRecord
+                ? new SlabRecord(record.type(), slabRecord.handle, expiresAt)
+                : new StorageRecord(record.type(), record.data(), expiresAt);
+        updated.access = record.access;
+        return updated;
+    }
+
+    private long sizeOf(Key key, StorageRecord record) {
+        long valueBytes = record instanceof SlabRecord slabRecord
+                ? slabs.slotBytes(slabRecord.handle)
+                : record.data().length;
+        return ENTRY_OVERHEAD + key.bytes().length + valueBytes;
+    }
+
+    /**
+     * A copy of the keyspace with every value on the heap.
+     */
+    public Map<Key, StorageRecord> getStore() {
+        Map<Key, StorageRecord> copy = new ConcurrentHashMap<>();
+        dataset.store.forEach((k, v) -> {
+            byte[] data = v instanceof SlabRecord ? getValue(k) : v.data();
+            if (data != null) {
+                copy.put(k, new StorageRecord(v.type(), data, v.expiresAt()));
+            }
+        });
+        return copy;
+    }
+
+    public Set<Key> getAllKeys() {
+        return dataset.store.keySet();
+    }
+
+    public ExpiryWheel getExpiryWheel() {
+        return expiryWheel;
+    }
+
+    public StorageEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * The slab allocator of the off-heap engine, or null with the heap engine.
+     */
+    public SlabAllocator getSlabs() {
+        return slabs;
+    }
+
+    public Evictor getEvictor() {
+        return evictor;
+    }
+
+    /**
+     * Zeroes the expired and evicted key counters, for CONFIG RESETSTAT.
+     */
+    public void resetStats() {
+        expiredKeys.reset();
+        evictedKeys.reset();
+    }
+
+    public long getExpiredKeys() {
+        return expiredKeys.sum();
+    }
+
+    public long getEvictedKeys() {
+        return evictedKeys.sum();
+    }
+
+    /**
+     * Number of keys with an expiry.
+     */
+    public long getExpiringKeys() {
+        return dataset.expiringKeys.sum();
+    }
+
+    /**
+     * Changes made to the keyspace since it was last saved, counting every write, expiry and eviction.
+     */
+    public long getDirty() {
+        return dirty.sum();
+    }
+
+    /**
+     * Starts the dirty count over, once the keyspace has been loaded from the file it now matches.
+     */
+    public void resetDirty() {
+        dirty.reset();
+    }
+
+    /**
+     * Takes the changes included in a successful save off the dirty count.
+     */
+    public void saved(Snapshot snapshot) {
+        dirty.add(-snapshot.getDirty());
+    }
+
+    /**
+     * Estimated bytes held by the keyspace: keys, values and the per-entry object overhead.
+     */
+    public long getUsedMemory() {
+        return dataset.usedMemory.sum();
     }
 }
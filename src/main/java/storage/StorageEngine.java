@@ -0,0 +1,25 @@
+package storage;
+
+public enum StorageEngine {
+    HEAP("heap"),
+    OFFHEAP("offheap");
+
+    private final String value;
+
+    StorageEngine(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public static StorageEngine fromValue(String value) {
+        for (StorageEngine engine : values()) {
+            if (engine.value.equalsIgnoreCase(value)) {
+                return engine;
+            }
+        }
+        throw new IllegalArgumentException("Invalid storage-engine: " + value);
+    }
+}
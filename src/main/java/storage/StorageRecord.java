@@ -2,11 +2,54 @@ package storage;
 
 import protocol.ValueType;
 
-import java.time.Instant;
+/**
+ * A value in the keyspace. The expiry is kept as epoch milliseconds rather than an {@link java.time.Instant}, so
+ * a record is a single object next to its data array.
+ * <p>
+ * Type, data and expiry never change; updates replace the whole record. One mutable field is the access stamp
+ * used by the {@link Evictor}, an LRU clock or an LFU counter depending on the policy. It is updated without
+ * synchronisation, as losing the odd concurrent update only makes eviction slightly less accurate. The other is
+ * the key's {@link ExpiryWheel} entry, set once the record is stored.
+ * <p>
+ * With the off-heap engine values live in slabs and their records are {@link SlabRecord}s, whose {@link #data()}
+ * is null; those values are read through {@link Storage}.
+ */
+public sealed class StorageRecord permits SlabRecord {
+    public static final long NO_EXPIRY = -1;
+
+    private final ValueType type;
+    private final byte[] data;
+    private final long expiresAt;
+    int access;
+    volatile ExpiryWheel.Entry expiryEntry;
+
+    public StorageRecord(ValueType type, byte[] data, long expiresAt) {
+        this.type = type;
+        this.data = data;
+        this.expiresAt = expiresAt;
+    }
 
-public record StorageRecord(ValueType type, byte[] data, Instant expiry) {
     public StorageRecord(ValueType type, byte[] data) {
-        this(type, data, null);
+        this(type, data, NO_EXPIRY);
+    }
+
+    public ValueType type() {
+        return type;
+    }
+
+    public byte[] data() {
+        return data;
+    }
+
+    public long expiresAt() {
+        return expiresAt;
     }
 
+    public boolean hasExpiry() {
+        return expiresAt != NO_EXPIRY;
+    }
+
+    public boolean isExpired(long now) {
+        return expiresAt != NO_EXPIRY && now > expiresAt;
+    }
 }
@@ -0,0 +1,106 @@
+package storage;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The writes to the keyspace made while a given set of snapshots, possibly empty, is open.
+ * <p>
+ * Opening or closing a snapshot starts a new phase, then waits for the writes of the previous one to drain, so
+ * that from then on every write is known to go through the snapshots of the new phase. Writers count themselves in and out of
+ * their phase on a stripe picked by thread, so they rarely share a cache line. Writers of a new snapshot phase hold
+ * off until the previous phase has drained, so none of them can interleave with a write that bypassed the snapshot.
+ */
+final class WritePhase {
+    private static final int STRIPES = 64;
+    // Longs between two stripes, so that each one sits on its own cache line
+    private static final int PADDING = 16;
+
+    private static final Snapshot[] NONE = new Snapshot[0];
+
+    private final Snapshot[] snapshots;
+    private final AtomicLongArray writers = new AtomicLongArray(STRIPES * PADDING);
+    private volatile boolean open;
+
+    WritePhase() {
+        this(NONE);
+    }
+
+    private WritePhase(Snapshot[] snapshots) {
+        this.snapshots = snapshots;
+        this.open = snapshots.length == 0;
+    }
+
+    /**
+     * The open snapshots that writes of this phase must preserve values for, possibly none. Not to be modified.
+     */
+    Snapshot[] snapshots() {
+        return snapshots;
+    }
+
+    /**
+     * The phase that follows this one once {@code snapshot} is open too.
+     */
+    WritePhase with(Snapshot snapshot) {
+        Snapshot[] next = Arrays.copyOf(snapshots, snapshots.length + 1);
+        next[snapshots.length] = snapshot;
+        return new WritePhase(next);
+    }
+
+    /**
+     * A phase that follows this one with the same snapshots, to wait out the writes of this one.
+     */
+    WritePhase next() {
+        return new WritePhase(snapshots);
+    }
+
+    /**
+     * The phase that follows this one once {@code snapshot} is closed.
+     */
+    WritePhase without(Snapshot snapshot) {
+        return new WritePhase(Arrays.stream(snapshots).filter(s -> s != snapshot).toArray(Snapshot[]::new));
+    }
+
+    boolean includes(Snapshot snapshot) {
+        return Arrays.asList(snapshots).contains(snapshot);
+    }
+
+    void enter() {
+        writers.getAndIncrement(stripe());
+    }
+
+    void exit() {
+        writers.getAndDecrement(stripe());
+    }
+
+    /**
+     * Waits until the phase is open to writes.
+     */
+    void awaitOpen() {
+        while (!open) {
+            Thread.onSpinWait();
+            Thread.yield();
+        }
+    }
+
+    void open() {
+        open = true;
+    }
+
+    /**
+     * Waits for the writes that entered this phase to finish. Only called once a newer phase has been published,
+     * so a writer entering this one late sees the newer phase when it checks and backs out without writing.
+     */
+    void awaitDrained() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            while (writers.get(stripe * PADDING) != 0) {
+                Thread.onSpinWait();
+                Thread.yield();
+            }
+        }
+    }
+
+    private static int stripe() {
+        return ((int) Thread.currentThread().threadId() & (STRIPES - 1)) * PADDING;
+    }
+}
@@ -1,8 +1,30 @@
 package util;
 
-public class CRC64 {
-    private static final long[] CRC64_TABLE = new long[256];
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.zip.Checksum;
+
+/**
+ * CRC-64 with the reflected ECMA-182 polynomial, all-ones initial value and final inversion (CRC-64/XZ), as
+ * written at the end of RDB files.
+ * <p>
+ * Uses slicing-by-16: sixteen tables let the loop fold two little-endian {@code long}s into the register per
+ * step instead of one byte, several times faster than the byte-at-a-time loop. Instances checksum incrementally
+ * through {@link Checksum}, so data can be checksummed as it is written; {@link #combine} joins the checksums of
+ * two consecutive pieces, which {@link #checksum(byte[], int, int)} uses to spread large arrays over cores.
+ */
+public class CRC64 implements Checksum {
     private static final long POLY = 0xC96C5795D7870F42L; // ISO polynomial
+    private static final int SLICES = 16;
+    private static final long[] TABLE = new long[SLICES * 256];
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    // Below this, splitting the work costs more than it saves
+    private static final int PARALLEL_THRESHOLD = 8 * 1024 * 1024;
+    private static final int PARALLEL_CHUNK = 4 * 1024 * 1024;
 
     static {
         for (int b = 0; b < 256; b++) {
@@ -14,16 +36,193 @@ public class CRC64 {
                     crc = crc >>> 1;
                 }
             }
-            CRC64_TABLE[b] = crc;
+            TABLE[b] = crc;
+        }
+        // Table k advances a byte through k more zero bytes
+        for (int k = 1; k < SLICES; k++) {
+            for (int b = 0; b < 256; b++) {
+                long previous = TABLE[(k - 1) * 256 + b];
+                TABLE[k * 256 + b] = (previous >>> 8) ^ TABLE[(int) previous & 0xFF];
+            }
         }
     }
 
+    // The register, kept inverted between updates
+    private long crc = ~0L;
+
+    @Override
+    public void update(int b) {
+        crc = TABLE[((int) crc ^ b) & 0xFF] ^ (crc >>> 8);
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        crc = update(crc, b, off, len);
+    }
+
+    /**
+     * Reads direct buffers a {@code long} at a time as well, instead of copying them to an array first.
+     */
+    @Override
+    public void update(ByteBuffer buffer) {
+        int position = buffer.position();
+        int remaining = buffer.remaining();
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + position, remaining);
+        } else {
+            ByteBuffer view = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+            long crc = this.crc;
+            int i = 0;
+            for (; i + 16 <= remaining; i += 16) {
+                crc = fold16(crc ^ view.getLong(i), view.getLong(i + 8));
+            }
+            for (; i + 8 <= remaining; i += 8) {
+                crc = fold8(crc ^ view.getLong(i));
+            }
+            for (; i < remaining; i++) {
+                crc = TABLE[((int) crc ^ view.get(i)) & 0xFF] ^ (crc >>> 8);
+            }
+            this.crc = crc;
+        }
+        buffer.position(position + remaining);
+    }
+
+    @Override
+    public long getValue() {
+        return ~crc;
+    }
+
+    @Override
+    public void reset() {
+        crc = ~0L;
+    }
+
     public static long checksum(byte[] data) {
-        long crc = 0xFFFFFFFFFFFFFFFFL; // initial value
-        for (byte b : data) {
-            int idx = ((int) crc ^ b) & 0xFF;
-            crc = CRC64_TABLE[idx] ^ (crc >>> 8);
+        return checksum(data, 0, data.length);
+    }
+
+    /**
+     * Checksum of a range of {@code data}. Large ranges are split into chunks checksummed in parallel and combined
+     * when there are cores to spare.
+     */
+    public static long checksum(byte[] data, int offset, int length) {
+        if (length < PARALLEL_THRESHOLD || ForkJoinPool.getCommonPoolParallelism() < 2) {
+            return ~update(~0L, data, offset, length);
+        }
+        int chunks = (length + PARALLEL_CHUNK - 1) / PARALLEL_CHUNK;
+        long[] partial = IntStream.range(0, chunks).parallel()
+                .mapToLong(chunk -> {
+                    int start = offset + chunk * PARALLEL_CHUNK;
+                    return ~update(~0L, data, start, Math.min(PARALLEL_CHUNK, offset + length - start));
+                })
+                .toArray();
+        long crc = partial[0];
+        for (int chunk = 1; chunk < chunks; chunk++) {
+            crc = combine(crc, partial[chunk], Math.min(PARALLEL_CHUNK, length - chunk * PARALLEL_CHUNK));
+        }
+        return crc;
+    }
+
+    /**
+     * Checksum of the concatenation of two pieces, given the checksum of each and the length of the second one.
+     * <p>
+     * Same approach as zlib's {@code crc32_combine}: appending {@code length2} zero bytes to the first piece is a
+     * linear map on the register, applied by repeatedly squaring the matrix for a single zero bit, so it takes
+     * O(log length2) matrix products whatever the length.
+     */
+    public static long combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[64];
+        long[] odd = new long[64];
+
+        // The operator for one zero bit
+        odd[0] = POLY;
+        long row = 1;
+        for (int n = 1; n < 64; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd); // two zero bits
+        gf2MatrixSquare(odd, even); // four zero bits
+
+        // The first squaring gives the operator for one zero byte, then each one doubles it
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long update(long crc, byte[] b, int off, int len) {
+        int end = off + len;
+        for (; off + 16 <= end; off += 16) {
+            crc = fold16(crc ^ (long) LONG.get(b, off), (long) LONG.get(b, off + 8));
+        }
+        for (; off + 8 <= end; off += 8) {
+            crc = fold8(crc ^ (long) LONG.get(b, off));
+        }
+        for (; off < end; off++) {
+            crc = TABLE[((int) crc ^ b[off]) & 0xFF] ^ (crc >>> 8);
+        }
+        return crc;
+    }
+
+    /**
+     * Runs the register through the next sixteen bytes: {@code x} holds the first eight with the register
+     * already XORed in, {@code y} the other eight.
+     */
+    private static long fold16(long x, long y) {
+        return TABLE[15 * 256 + ((int) x & 0xFF)]
+                ^ TABLE[14 * 256 + ((int) (x >>> 8) & 0xFF)]
+                ^ TABLE[13 * 256 + ((int) (x >>> 16) & 0xFF)]
+                ^ TABLE[12 * 256 + ((int) (x >>> 24) & 0xFF)]
+                ^ TABLE[11 * 256 + ((int) (x >>> 32) & 0xFF)]
+                ^ TABLE[10 * 256 + ((int) (x >>> 40) & 0xFF)]
+                ^ TABLE[9 * 256 + ((int) (x >>> 48) & 0xFF)]
+                ^ TABLE[8 * 256 + (int) (x >>> 56)]
+                ^ fold8(y);
+    }
+
+    /**
+     * Runs the register, with the next eight bytes already XORed in, through those eight bytes.
+     */
+    private static long fold8(long x) {
+        return TABLE[7 * 256 + ((int) x & 0xFF)]
+                ^ TABLE[6 * 256 + ((int) (x >>> 8) & 0xFF)]
+                ^ TABLE[5 * 256 + ((int) (x >>> 16) & 0xFF)]
+                ^ TABLE[4 * 256 + ((int) (x >>> 24) & 0xFF)]
+                ^ TABLE[3 * 256 + ((int) (x >>> 32) & 0xFF)]
+                ^ TABLE[2 * 256 + ((int) (x >>> 40) & 0xFF)]
+                ^ TABLE[256 + ((int) (x >>> 48) & 0xFF)]
+                ^ TABLE[(int) (x >>> 56)];
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for (int n = 0; n < 64; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
         }
-        return ~crc; // final XOR
     }
 }
@@ -0,0 +1,47 @@
+package util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A cached millisecond clock for expiry checks, which run on every read of a key with a TTL.
+ * <p>
+ * A daemon thread refreshes the value once per millisecond, so readers pay a single volatile load instead of a
+ * system call and an {@link java.time.Instant} allocation. The time is derived from {@link System#nanoTime()}
+ * anchored to the wall clock at startup, so it never goes backwards when the system clock is adjusted.
+ */
+public final class Clock {
+    private static final long RESOLUTION_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long ORIGIN_MILLIS = System.currentTimeMillis();
+    private static final long ORIGIN_NANOS = System.nanoTime();
+
+    private static volatile long cachedMillis = ORIGIN_MILLIS;
+
+    static {
+        Thread ticker = new Thread(() -> {
+            while (true) {
+                cachedMillis = currentMillis();
+                LockSupport.parkNanos(RESOLUTION_NANOS);
+            }
+        }, "clock-ticker");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    private Clock() {
+    }
+
+    /**
+     * Milliseconds since the epoch, accurate to about a millisecond.
+     */
+    public static long millis() {
+        return cachedMillis;
+    }
+
+    /**
+     * Milliseconds since the epoch, computed on the spot. For callers that must not observe a stale value.
+     */
+    public static long currentMillis() {
+        return ORIGIN_MILLIS + (System.nanoTime() - ORIGIN_NANOS) / 1_000_000;
+    }
+}
@@ -0,0 +1,182 @@
+package util;
+
+/**
+ * LZF, the fast and simple compression Redis applies to strings in RDB files, in the format of liblzf.
+ * <p>
+ * Compressed data is a sequence of literal runs and back references. A control byte below 32 is followed by that
+ * many plus one literal bytes. Any other control byte is a back reference: its top three bits are the length
+ * minus two, seven meaning that the next byte adds to it, and its low five bits with the byte after that are the
+ * distance minus one, up to 8 KiB back.
+ * <p>
+ * An instance keeps the hash table of recent positions that the compressor looks matches up in, so it is not
+ * thread-safe; decompressing needs no state.
+ */
+public final class LZF {
+    private static final int HASH_LOG = 16;
+    private static final int HASH_SIZE = 1 << HASH_LOG;
+    private static final int MAX_LITERAL = 1 << 5;
+    private static final int MAX_OFFSET = 1 << 13;
+    private static final int MAX_REFERENCE = (1 << 8) + (1 << 3);
+
+    // Positions in the input being compressed, or left over from previous inputs. Never cleared: a candidate is
+    // only used once its bytes have been compared, so a stale one can only cost a missed match.
+    private final int[] table = new int[HASH_SIZE];
+
+    /**
+     * Compresses {@code inLength} bytes of {@code in} into at most {@code outLength} bytes of {@code out}, and
+     * returns the compressed length, or 0 if it does not fit.
+     */
+    public int compress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset, int outLength) {
+        int inEnd = inOffset + inLength;
+        int outEnd = outOffset + outLength;
+        int ip = inOffset;
+        // The control byte of the current literal run goes before its literals, once their number is known
+        int op = outOffset + 1;
+        int literals = 0;
+        if (op >= outEnd) {
+            return 0;
+        }
+
+        int hash = inLength >= 2 ? first(in, ip) : 0;
+        while (ip < inEnd - 2) {
+            hash = next(hash, in, ip);
+            int slot = index(hash);
+            int reference = table[slot];
+            table[slot] = ip;
+
+            int offset = ip - reference - 1;
+            if (reference >= inOffset && reference < ip && offset < MAX_OFFSET
+                    && in[reference] == in[ip] && in[reference + 1] == in[ip + 1] && in[reference + 2] == in[ip + 2]) {
+                int length = 2;
+                int maxLength = Math.min(inEnd - ip - length, MAX_REFERENCE);
+                // Room for the reference and the control byte of the next run
+                if (op + 3 + 1 >= outEnd) {
+                    // The end of a run is the only place where the output can't be cut short
+                    if (op - (literals == 0 ? 1 : 0) + 3 + 1 >= outEnd) {
+                        return 0;
+                    }
+                }
+                out[op - literals - 1] = (byte) (literals - 1);
+                if (literals == 0) {
+                    // No literals before the reference, drop the control byte set aside for them
+                    op--;
+                }
+                do {
+                    length++;
+                } while (length < maxLength && in[reference + length] == in[ip + length]);
+
+                length -= 2;
+                ip++;
+                if (length < 7) {
+                    out[op++] = (byte) ((offset >>> 8) + (length << 5));
+                } else {
+                    out[op++] = (byte) ((offset >>> 8) + (7 << 5));
+                    out[op++] = (byte) (length - 7);
+                }
+                out[op++] = (byte) offset;
+
+                literals = 0;
+                op++;
+                ip += length + 1;
+                if (ip >= inEnd - 2) {
+                    break;
+                }
+                // Hash the position before the next one, so that repeats right after the match are found too
+                ip--;
+                hash = first(in, ip);
+                hash = next(hash, in, ip);
+                table[index(hash)] = ip;
+                ip++;
+            } else {
+                if (op >= outEnd) {
+                    return 0;
+                }
+                literals++;
+                out[op++] = in[ip++];
+                if (literals == MAX_LITERAL) {
+                    out[op - literals - 1] = (byte) (literals - 1);
+                    literals = 0;
+                    op++;
+                }
+            }
+        }
+
+        while (ip < inEnd) {
+            if (op >= outEnd) {
+                return 0;
+            }
+            literals++;
+            out[op++] = in[ip++];
+            if (literals == MAX_LITERAL) {
+                out[op - literals - 1] = (byte) (literals - 1);
+                literals = 0;
+                op++;
+            }
+        }
+
+        if (literals > 0) {
+            out[op - literals - 1] = (byte) (literals - 1);
+        } else {
+            op--;
+        }
+        return op - outOffset;
+    }
+
+    /**
+     * Decompresses {@code inLength} bytes of {@code in} into {@code out}, which must have room for all of the
+     * original bytes, and returns their number.
+     *
+     * @throws IllegalArgumentException if the data is corrupt or does not fit
+     */
+    public static int decompress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset, int outLength) {
+        int ip = inOffset;
+        int inEnd = inOffset + inLength;
+        int op = outOffset;
+        int outEnd = outOffset + outLength;
+        while (ip < inEnd) {
+            int control = in[ip++] & 0xFF;
+            if (control < MAX_LITERAL) {
+                int length = control + 1;
+                if (op + length > outEnd || ip + length > inEnd) {
+                    throw new IllegalArgumentException("Corrupt LZF data: literal run out of bounds");
+                }
+                System.arraycopy(in, ip, out, op, length);
+                ip += length;
+                op += length;
+            } else {
+                int length = control >>> 5;
+                if (length == 7) {
+                    if (ip >= inEnd) {
+                        throw new IllegalArgumentException("Corrupt LZF data: truncated reference");
+                    }
+                    length += in[ip++] & 0xFF;
+                }
+                if (ip >= inEnd) {
+                    throw new IllegalArgumentException("Corrupt LZF data: truncated reference");
+                }
+                int reference = op - ((control & 0x1F) << 8) - 1 - (in[ip++] & 0xFF);
+                length += 2;
+                if (op + length > outEnd || reference < outOffset) {
+                    throw new IllegalArgumentException("Corrupt LZF data: reference out of bounds");
+                }
+                // Byte by byte, as a reference may overlap the bytes it produces
+                for (int i = 0; i < length; i++) {
+                    out[op++] = out[reference++];
+                }
+            }
+        }
+        return op - outOffset;
+    }
+
+    private static int first(byte[] in, int p) {
+        return ((in[p] & 0xFF) << 8) | (in[p + 1] & 0xFF);
+    }
+
+    private static int next(int hash, byte[] in, int p) {
+        return (hash << 8) | (in[p + 2] & 0xFF);
+    }
+
+    private static int index(int hash) {
+        return ((hash >>> (3 * 8 - HASH_LOG)) - hash * 5) & (HASH_SIZE - 1);
+    }
+}